@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.FutureGet;
+import net.tomp2p.futures.FuturePut;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerMaker;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.storage.Data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the NIO and the native epoll transport with two peers on loopback. If epoll is not available, the EPOLL
+ * run falls back to NIO, which is printed at startup. Run it with several threads to see how the transports handle
+ * concurrent requests, e.g., <code>java -jar target/benchmarks.jar TransportBenchmark -t 8</code>.
+ *
+ * @author Thomas Bocek
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportBenchmark {
+
+    private static final int PORT = 4101;
+
+    @Param({ "NIO", "EPOLL" })
+    private Transport transport;
+
+    private Peer sender;
+    private Peer receiver;
+    private Number160 locationKey;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        System.err.println("transport " + transport + " resolves to " + transport.resolve());
+        receiver = new PeerMaker(new Number160(1)).ports(PORT)
+                .channelServerConfiguration(PeerMaker.createDefaultChannelServerConfiguration().transport(transport))
+                .makeAndListen();
+        sender = new PeerMaker(new Number160(2)).ports(PORT + 1)
+                .channelServerConfiguration(PeerMaker.createDefaultChannelServerConfiguration().transport(transport))
+                .makeAndListen();
+        sender.bootstrap().setPeerAddress(receiver.getPeerAddress()).start().awaitUninterruptibly();
+        locationKey = Number160.createHash("benchmark");
+        put();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sender.shutdown().awaitUninterruptibly();
+        receiver.shutdown().awaitUninterruptibly();
+    }
+
+    @Benchmark
+    public boolean pingUDP() {
+        final BaseFuture future = sender.ping().setPeerAddress(receiver.getPeerAddress()).start();
+        return future.awaitUninterruptibly().isSuccess();
+    }
+
+    @Benchmark
+    public boolean pingTCP() {
+        final BaseFuture future = sender.ping().setPeerAddress(receiver.getPeerAddress()).setTcpPing().start();
+        return future.awaitUninterruptibly().isSuccess();
+    }
+
+    @Benchmark
+    public boolean put() {
+        final FuturePut future = sender.put(locationKey).setData(new Data(new byte[1024])).start();
+        return future.awaitUninterruptibly().isSuccess();
+    }
+
+    @Benchmark
+    public boolean get() {
+        final FutureGet future = sender.get(locationKey).start();
+        return future.awaitUninterruptibly().isSuccess();
+    }
+}
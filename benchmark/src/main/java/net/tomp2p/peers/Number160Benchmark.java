@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.peers;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of comparing keys and of the xor distance calculations used for routing. Run it with
+ * <code>java -jar target/benchmarks.jar Number160Benchmark -prof gc</code> to see the allocation rate as well.
+ *
+ * @author Thomas Bocek
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Number160Benchmark {
+
+    private static final int SIZE = 1024;
+
+    private final Number160[] keys = new Number160[SIZE];
+    private final Number640[] keys640 = new Number640[SIZE];
+    private Number160 target;
+    private int index;
+
+    @Setup
+    public void setup() {
+        final Random rnd = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            keys[i] = new Number160(rnd);
+            // same location and domain, thus the content key decides
+            keys640[i] = new Number640(Number160.ONE, Number160.ONE, keys[i], Number160.ZERO);
+        }
+        target = new Number160(rnd);
+    }
+
+    private int next() {
+        index = (index + 1) & (SIZE - 1);
+        return index;
+    }
+
+    @Benchmark
+    public int compare160() {
+        final int i = next();
+        return keys[i].compareTo(keys[(i + 1) & (SIZE - 1)]);
+    }
+
+    @Benchmark
+    public int compare640() {
+        final int i = next();
+        return keys640[i].compareTo(keys640[(i + 1) & (SIZE - 1)]);
+    }
+
+    @Benchmark
+    public int hashCode160() {
+        return keys[next()].hashCode();
+    }
+
+    @Benchmark
+    public Number160 xor() {
+        return target.xor(keys[next()]);
+    }
+
+    @Benchmark
+    public int xorBitLength() {
+        return target.xorBitLength(keys[next()]);
+    }
+
+    @Benchmark
+    public int compareXor() {
+        final int i = next();
+        return target.compareXor(keys[i], keys[(i + 1) & (SIZE - 1)]);
+    }
+
+    @Benchmark
+    public int classMember() {
+        return PeerMap.classMember(target, keys[next()]);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.storage;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the per key locks with operations on random keys. To see how the throughput scales with
+ * the number of cores, run it with a different number of threads, e.g.,
+ * <code>java -jar target/benchmarks.jar KeyLockBenchmark -t 1</code> and <code>-t 4</code>.
+ *
+ * @author Thomas Bocek
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyLockBenchmark {
+
+    @Param({ "1", "1024" })
+    private int nrKeys;
+
+    private KeyLock<Number640> keyLock;
+    private StorageLayer storageLayer;
+    private Number640[] keys;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Random rnd = new Random();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Random rnd = new Random(42);
+        keyLock = new KeyLock<Number640>();
+        storageLayer = new StorageLayer(new StorageMemory());
+        keys = new Number640[nrKeys];
+        for (int i = 0; i < nrKeys; i++) {
+            keys[i] = new Number640(new Number160(rnd), Number160.ZERO, new Number160(rnd), Number160.ZERO);
+            storageLayer.put(keys[i], new Data(new byte[] { (byte) i }), null, false, false);
+        }
+    }
+
+    @Benchmark
+    public KeyLock<Number640>.RefCounterLock lockUnlock(ThreadState state) {
+        final KeyLock<Number640>.RefCounterLock lock = keyLock.lock(keys[state.rnd.nextInt(nrKeys)]);
+        keyLock.unlock(lock);
+        return lock;
+    }
+
+    @Benchmark
+    public Data storageGet(ThreadState state) {
+        return storageLayer.get(keys[state.rnd.nextInt(nrKeys)]);
+    }
+
+    @Benchmark
+    public boolean storageContains(ThreadState state) {
+        return storageLayer.contains(keys[state.rnd.nextInt(nrKeys)]);
+    }
+}
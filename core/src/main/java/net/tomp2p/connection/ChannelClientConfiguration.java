@@ -27,6 +27,9 @@ public class ChannelClientConfiguration {
     private int maxPermitsPermanentTCP;
     private int maxPermitsUDP;
     private int maxPermitsTCP;
+    private int maxPooledTCPPerPeer;
+    private int pooledTCPIdleMillis;
+    private int maxInFlightPerConnection;
 
     private PipelineFilter pipelineFilter;
     private SignatureFactory signatureFactory;
@@ -83,6 +86,59 @@ public class ChannelClientConfiguration {
         return this;
     }
 
+    /**
+     * @return The maximum number of idle TCP connections that are kept open per remote peer, 0 disables the pool
+     */
+    public int maxPooledTCPPerPeer() {
+        return maxPooledTCPPerPeer;
+    }
+
+    /**
+     * @param maxPooledTCPPerPeer
+     *            The maximum number of idle TCP connections that are kept open per remote peer, 0 disables the pool
+     * @return This class
+     */
+    public ChannelClientConfiguration maxPooledTCPPerPeer(final int maxPooledTCPPerPeer) {
+        this.maxPooledTCPPerPeer = maxPooledTCPPerPeer;
+        return this;
+    }
+
+    /**
+     * @return The time after which an idle pooled TCP connection is closed
+     */
+    public int pooledTCPIdleMillis() {
+        return pooledTCPIdleMillis;
+    }
+
+    /**
+     * @param pooledTCPIdleMillis
+     *            The time after which an idle pooled TCP connection is closed. This needs to be shorter than the idle
+     *            timeout of the other peers.
+     * @return This class
+     */
+    public ChannelClientConfiguration pooledTCPIdleMillis(final int pooledTCPIdleMillis) {
+        this.pooledTCPIdleMillis = pooledTCPIdleMillis;
+        return this;
+    }
+
+    /**
+     * @return The number of requests that may wait for a reply on a {@link PeerConnection} at the same time
+     */
+    public int maxInFlightPerConnection() {
+        return maxInFlightPerConnection;
+    }
+
+    /**
+     * @param maxInFlightPerConnection
+     *            The number of requests that may wait for a reply on a {@link PeerConnection} at the same time, 1
+     *            sends one request after the other
+     * @return This class
+     */
+    public ChannelClientConfiguration maxInFlightPerConnection(final int maxInFlightPerConnection) {
+        this.maxInFlightPerConnection = maxInFlightPerConnection;
+        return this;
+    }
+
     /**
      * @return Set the filter for the pipeline, where the user can add / remove or change filters
      */
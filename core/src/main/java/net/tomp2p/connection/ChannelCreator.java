@@ -27,8 +27,6 @@ import io.netty.channel.FixedRecvByteBufAllocator;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.ChannelGroupFuture;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.socket.nio.NioDatagramChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.GenericFutureListener;
 import io.netty.util.concurrent.GlobalEventExecutor;
@@ -59,6 +57,7 @@ public class ChannelCreator {
 	private static final Logger LOG = LoggerFactory.getLogger(ChannelCreator.class);
 
 	private final EventLoopGroup workerGroup;
+	private final Transport transport;
 	private final ChannelGroup recipients = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
 
 	private final int maxPermitsUDP;
@@ -82,8 +81,10 @@ public class ChannelCreator {
 	private final ChannelClientConfiguration channelClientConfiguration;
 
 	private final Bindings externalBindings;
+
+	private final ConnectionPool connectionPool;
 	
-	private EventExecutorGroup handlerExecutor;
+	private volatile EventExecutorGroup handlerExecutor;
 
 	private boolean shutdownUDP = false;
 	private boolean shutdownTCP = false;
@@ -108,7 +109,34 @@ public class ChannelCreator {
 	ChannelCreator(final EventLoopGroup workerGroup, final FutureDone<Void> futureChannelCreationDone,
 	        final int maxPermitsUDP, final int maxPermitsTCP,
 	        final ChannelClientConfiguration channelClientConfiguration) {
+		this(workerGroup, futureChannelCreationDone, maxPermitsUDP, maxPermitsTCP, channelClientConfiguration, null);
+	}
+
+	/**
+	 * Package private constructor, since this is created by
+	 * {@link ConnectionReservation} and should never be called directly.
+	 * 
+	 * @param workerGroup
+	 *            The worker group for netty that is shared between TCP and UDP.
+	 *            This workergroup is not shutdown if this class is shutdown
+	 * @param futureChannelCreationDone
+	 *            We need to set this from the outside as we want to attach
+	 *            listeners to it
+	 * @param maxPermitsUDP
+	 *            The number of max. parallel UDP connections.
+	 * @param maxPermitsTCP
+	 *            The number of max. parallel TCP connections.
+	 * @param channelClientConfiguration
+	 *            The configuration that contains the pipeline filter
+	 * @param connectionPool
+	 *            The pool to reuse TCP channels from, or null to always open a
+	 *            new connection
+	 */
+	ChannelCreator(final EventLoopGroup workerGroup, final FutureDone<Void> futureChannelCreationDone,
+	        final int maxPermitsUDP, final int maxPermitsTCP,
+	        final ChannelClientConfiguration channelClientConfiguration, final ConnectionPool connectionPool) {
 		this.workerGroup = workerGroup;
+		this.transport = Transport.of(workerGroup);
 		this.futureChannelCreationDone = futureChannelCreationDone;
 		this.maxPermitsUDP = maxPermitsUDP;
 		this.maxPermitsTCP = maxPermitsTCP;
@@ -116,6 +144,7 @@ public class ChannelCreator {
 		this.semaphoreTCP = new Semaphore(maxPermitsTCP);
 		this.channelClientConfiguration = channelClientConfiguration;
 		this.externalBindings = channelClientConfiguration.externalBindings();
+		this.connectionPool = connectionPool;
 	}
 
 	/**
@@ -144,7 +173,7 @@ public class ChannelCreator {
 			}
 			final Bootstrap b = new Bootstrap();
 			b.group(workerGroup);
-			b.channel(NioDatagramChannel.class);
+			b.channel(transport.datagramChannel());
 			b.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(ConnectionBean.UDP_LIMIT));
 			if (broadcast) {
 				b.option(ChannelOption.SO_BROADCAST, true);
@@ -184,6 +213,35 @@ public class ChannelCreator {
 	 */
 	public ChannelFuture createTCP(final SocketAddress socketAddress, final int connectionTimeoutMillis,
 	        final Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers, final FutureResponse futureResponse) {
+		return createTCP(socketAddress, connectionTimeoutMillis, channelHandlers, futureResponse, false);
+	}
+
+	/**
+	 * Creates a channel to the given address or reuses an idle channel from
+	 * the connection pool. A pooled channel has to be given back with
+	 * {@link ConnectionPool#release(Channel)} once the reply has been
+	 * received.
+	 * 
+	 * @param socketAddress
+	 *            The address to send future messages
+	 * @param connectionTimeoutMillis
+	 *            The timeout for establishing a TCP connection
+	 * @param channelHandlers
+	 *            The handlers to set
+	 * @param futureResponse
+	 *            The future that is notified when the channel is given back
+	 *            or closed
+	 * @param pooled
+	 *            True if the channel may be taken from and given back to the
+	 *            pool. This is ignored if this creator has no pool.
+	 * @return The channel future object or null if we are shut down.
+	 */
+	public ChannelFuture createTCP(final SocketAddress socketAddress, final int connectionTimeoutMillis,
+	        final Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers,
+	        final FutureResponse futureResponse, final boolean pooled) {
+		if (pooled && connectionPool != null) {
+			return createPooledTCP(socketAddress, connectionTimeoutMillis, channelHandlers, futureResponse);
+		}
 		readTCP.lock();
 		try {
 			if (shutdownTCP) {
@@ -195,7 +253,7 @@ public class ChannelCreator {
 			}
 			Bootstrap b = new Bootstrap();
 			b.group(workerGroup);
-			b.channel(NioSocketChannel.class);
+			b.channel(transport.socketChannel());
 			b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectionTimeoutMillis);
 			b.option(ChannelOption.TCP_NODELAY, true);
 			b.option(ChannelOption.SO_LINGER, 0);
@@ -213,6 +271,106 @@ public class ChannelCreator {
 		}
 	}
 
+	private ChannelFuture createPooledTCP(final SocketAddress socketAddress, final int connectionTimeoutMillis,
+	        final Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers,
+	        final FutureResponse futureResponse) {
+		readTCP.lock();
+		try {
+			if (shutdownTCP) {
+				return null;
+			}
+			if (!semaphoreTCP.tryAcquire()) {
+				LOG.error("Tried to acquire more resources (TCP) than announced!");
+				throw new RuntimeException("Tried to acquire more resources (TCP) than announced!");
+			}
+			Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers2 = channelClientConfiguration.pipelineFilter().filter(channelHandlers, true, true);
+			final ConnectionPool.Lease lease = new ConnectionPool.Lease(connectionPool, this, futureResponse);
+
+			final Channel pooledChannel = connectionPool.acquire(socketAddress);
+			if (pooledChannel != null) {
+				LOG.debug("reuse pooled channel {}", pooledChannel);
+				pooledChannel.attr(ConnectionPool.LEASE_KEY).set(lease);
+				recipients.add(pooledChannel);
+				Pair<EventExecutorGroup, ChannelHandler> handler = channelHandlers2.get("handler");
+				if (handler != null) {
+					handlerExecutor = handler.element0();
+				}
+				// the channel may have been closed in the meantime. If the
+				// close listener already ran, it did not see our lease
+				if (!pooledChannel.isActive()) {
+					final ConnectionPool.Lease current = pooledChannel.attr(ConnectionPool.LEASE_KEY).getAndSet(null);
+					if (current != null) {
+						current.channelCreator().releaseTCP(current.futureResponse());
+					}
+				}
+				return ConnectionPool.replaceHandlers(pooledChannel, channelHandlers2);
+			}
+
+			Bootstrap b = new Bootstrap();
+			b.group(workerGroup);
+			b.channel(transport.socketChannel());
+			b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectionTimeoutMillis);
+			b.option(ChannelOption.TCP_NODELAY, true);
+			b.option(ChannelOption.SO_LINGER, 0);
+			b.option(ChannelOption.SO_REUSEADDR, true);
+			addHandlers(b, connectionPool.pooledHandlers(channelHandlers2));
+
+			ChannelFuture channelFuture = b.connect(socketAddress, externalBindings.wildCardSocket());
+			final Channel channel = channelFuture.channel();
+			channel.attr(ConnectionPool.POOL_ADDRESS_KEY).set(socketAddress);
+			channel.attr(ConnectionPool.LEASE_KEY).set(lease);
+			recipients.add(channel);
+			// the channel outlives this creator, thus the listener needs to
+			// release the permit of the current user
+			channel.closeFuture().addListener(new GenericFutureListener<ChannelFuture>() {
+				@Override
+				public void operationComplete(final ChannelFuture future) throws Exception {
+					connectionPool.remove(channel);
+					final ConnectionPool.Lease current = channel.attr(ConnectionPool.LEASE_KEY).getAndSet(null);
+					if (current != null) {
+						current.channelCreator().releaseTCP(current.futureResponse());
+					}
+				}
+			});
+			return channelFuture;
+		} finally {
+			readTCP.unlock();
+		}
+	}
+
+	/**
+	 * Removes a pooled channel that has been given back, so that it is not
+	 * closed when this creator is shut down.
+	 * 
+	 * @param channel
+	 *            The channel that has been given back
+	 */
+	void removeRecipient(final Channel channel) {
+		recipients.remove(channel);
+	}
+
+	/**
+	 * Releases the TCP permit of a pooled channel and notifies the future,
+	 * the same way as if the channel had been closed.
+	 * 
+	 * @param futureResponse
+	 *            The future to notify
+	 */
+	void releaseTCP(final FutureResponse futureResponse) {
+		Runnable runner = new Runnable() {
+			@Override
+			public void run() {
+				semaphoreTCP.release();
+				futureResponse.setResponseNow();
+			}
+		};
+		if (handlerExecutor == null) {
+			runner.run();
+		} else {
+			handlerExecutor.submit(runner);
+		}
+	}
+
 	/**
 	 * Since we want to add multiple handlers, we need to do this with the
 	 * pipeline.
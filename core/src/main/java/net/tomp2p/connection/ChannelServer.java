@@ -26,8 +26,6 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.FixedRecvByteBufAllocator;
-import io.netty.channel.socket.nio.NioDatagramChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.GenericFutureListener;
 
@@ -175,7 +173,7 @@ public final class ChannelServer {
 	boolean startupUDP(final InetSocketAddress listenAddresses, final ChannelServerConficuration config) {
 		Bootstrap b = new Bootstrap();
 		b.group(workerGroup);
-		b.channel(NioDatagramChannel.class);
+		b.channel(Transport.of(workerGroup).datagramChannel());
 		b.option(ChannelOption.SO_BROADCAST, true);
 		b.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(ConnectionBean.UDP_LIMIT));
 
@@ -209,7 +207,7 @@ public final class ChannelServer {
 	boolean startupTCP(final InetSocketAddress listenAddresses, final ChannelServerConficuration config) {
 		ServerBootstrap b = new ServerBootstrap();
 		b.group(bossGroup, workerGroup);
-		b.channel(NioServerSocketChannel.class);
+		b.channel(Transport.of(workerGroup).serverSocketChannel());
 		b.childHandler(new ChannelInitializer<Channel>() {
 			@Override
 			protected void initChannel(final Channel ch) throws Exception {
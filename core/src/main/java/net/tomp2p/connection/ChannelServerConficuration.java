@@ -48,6 +48,8 @@ public class ChannelServerConficuration implements ConnectionConfiguration {
     
     private int heartBeatMillis = PeerConnection.HEART_BEAT_MILLIS;
 
+    private Transport transport = Transport.NIO;
+
     /**
      * @return True if this peer is behind a firewall and cannot be accessed directly
      */
@@ -255,4 +257,21 @@ public class ChannelServerConficuration implements ConnectionConfiguration {
 	    this.heartBeatMillis = heartBeatMillis;
 	    return this;
     }
+
+    /**
+     * @return The transport of the event loops and channels
+     */
+    public Transport transport() {
+        return transport;
+    }
+
+    /**
+     * @param transport
+     *            The transport of the event loops and channels, {@link Transport#AUTO} uses native epoll if available
+     * @return This class
+     */
+    public ChannelServerConficuration transport(final Transport transport) {
+        this.transport = transport;
+        return this;
+    }
 }
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.utils.Pair;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps idle outbound TCP channels per remote address, so that consecutive requests to the same peer do not need a new
+ * TCP handshake. A channel taken from the pool counts against the TCP permits of the {@link ChannelCreator} that uses
+ * it, just like a new connection. Once the reply has arrived, the {@link RequestHandler} gives the channel back
+ * instead of closing it, which releases the permit.
+ * <p>
+ * Idle channels are evicted by a {@link HeartBeat} handler once they have not been used for
+ * {@link #idleMillis()}. This has to be shorter than the idle timeout of the remote peer, otherwise the remote peer
+ * closes the connection and reports us as failed. Closed channels are removed right away.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class ConnectionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+
+    static final AttributeKey<SocketAddress> POOL_ADDRESS_KEY = AttributeKey.valueOf("pool-addr");
+
+    static final AttributeKey<Lease> LEASE_KEY = AttributeKey.valueOf("pool-lease");
+
+    // the handlers of a request that need to be removed before the channel can be reused
+    private static final String[] REQUEST_HANDLERS = { "timeout0", "timeout1", "handler" };
+
+    private final int maxPerPeer;
+    private final int idleMillis;
+
+    // guarded by idle
+    private final Map<SocketAddress, Deque<Channel>> idle = new HashMap<SocketAddress, Deque<Channel>>();
+    private boolean shutdown = false;
+
+    private final ChannelHandler idleEviction = new IdleEviction();
+
+    /**
+     * The current user of a pooled channel.
+     */
+    static final class Lease {
+        private final ConnectionPool connectionPool;
+        private final ChannelCreator channelCreator;
+        private final FutureResponse futureResponse;
+
+        Lease(final ConnectionPool connectionPool, final ChannelCreator channelCreator,
+                final FutureResponse futureResponse) {
+            this.connectionPool = connectionPool;
+            this.channelCreator = channelCreator;
+            this.futureResponse = futureResponse;
+        }
+
+        ChannelCreator channelCreator() {
+            return channelCreator;
+        }
+
+        FutureResponse futureResponse() {
+            return futureResponse;
+        }
+    }
+
+    /**
+     * @param maxPerPeer
+     *            The maximum number of idle channels that are kept for a remote address
+     * @param idleMillis
+     *            The time after which an unused channel is closed
+     */
+    public ConnectionPool(final int maxPerPeer, final int idleMillis) {
+        this.maxPerPeer = maxPerPeer;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * @return The maximum number of idle channels that are kept for a remote address
+     */
+    public int maxPerPeer() {
+        return maxPerPeer;
+    }
+
+    /**
+     * @return The time after which an unused channel is closed
+     */
+    public int idleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * Takes the most recently used channel to the given address out of the pool.
+     *
+     * @param socketAddress
+     *            The remote address
+     * @return An open channel or null if there is no idle channel for this address
+     */
+    Channel acquire(final SocketAddress socketAddress) {
+        synchronized (idle) {
+            final Deque<Channel> channels = idle.get(socketAddress);
+            if (channels == null) {
+                return null;
+            }
+            Channel channel;
+            while ((channel = channels.pollFirst()) != null) {
+                if (channel.isActive()) {
+                    break;
+                }
+            }
+            if (channels.isEmpty()) {
+                idle.remove(socketAddress);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Puts a channel back into the pool.
+     *
+     * @param channel
+     *            The channel that is not used anymore
+     * @return False if the channel cannot be kept, because the pool is full or shut down, or the channel is closed
+     */
+    boolean offer(final Channel channel) {
+        final SocketAddress socketAddress = channel.attr(POOL_ADDRESS_KEY).get();
+        synchronized (idle) {
+            if (shutdown || socketAddress == null || !channel.isActive()) {
+                return false;
+            }
+            Deque<Channel> channels = idle.get(socketAddress);
+            if (channels == null) {
+                channels = new ArrayDeque<Channel>(maxPerPeer);
+                idle.put(socketAddress, channels);
+            }
+            if (channels.size() >= maxPerPeer) {
+                return false;
+            }
+            channels.addFirst(channel);
+            return true;
+        }
+    }
+
+    /**
+     * Removes a channel from the pool.
+     *
+     * @param channel
+     *            The channel to remove
+     * @return True if the channel was idle in the pool
+     */
+    boolean remove(final Channel channel) {
+        final SocketAddress socketAddress = channel.attr(POOL_ADDRESS_KEY).get();
+        synchronized (idle) {
+            final Deque<Channel> channels = idle.get(socketAddress);
+            if (channels == null) {
+                return false;
+            }
+            final boolean removed = channels.remove(channel);
+            if (channels.isEmpty()) {
+                idle.remove(socketAddress);
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * @return The number of idle channels in the pool
+     */
+    public int idleChannels() {
+        synchronized (idle) {
+            int size = 0;
+            for (Deque<Channel> channels : idle.values()) {
+                size += channels.size();
+            }
+            return size;
+        }
+    }
+
+    /**
+     * @param socketAddress
+     *            The remote address
+     * @return The number of idle channels in the pool for this address
+     */
+    public int idleChannels(final SocketAddress socketAddress) {
+        synchronized (idle) {
+            final Deque<Channel> channels = idle.get(socketAddress);
+            return channels == null ? 0 : channels.size();
+        }
+    }
+
+    /**
+     * Closes all idle channels. Channels that are given back afterwards are closed as well.
+     */
+    public void shutdown() {
+        final List<Channel> toClose = new ArrayList<Channel>();
+        synchronized (idle) {
+            shutdown = true;
+            for (Deque<Channel> channels : idle.values()) {
+                toClose.addAll(channels);
+            }
+            idle.clear();
+        }
+        for (Channel channel : toClose) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Adds the handlers for pooling to the handlers of a new channel. The heart beat is added first, so that it sees
+     * all the traffic.
+     *
+     * @param channelHandlers
+     *            The handlers of the request
+     * @return The handlers for a pooled channel
+     */
+    Map<String, Pair<EventExecutorGroup, ChannelHandler>> pooledHandlers(
+            final Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers) {
+        final Map<String, Pair<EventExecutorGroup, ChannelHandler>> handlers = new LinkedHashMap<String, Pair<EventExecutorGroup, ChannelHandler>>(
+                channelHandlers.size() * 2);
+        handlers.put("heartbeat", new Pair<EventExecutorGroup, ChannelHandler>(null, new HeartBeat(idleMillis,
+                TimeUnit.MILLISECONDS, null)));
+        handlers.putAll(channelHandlers);
+        handlers.put("pool", new Pair<EventExecutorGroup, ChannelHandler>(null, idleEviction));
+        return handlers;
+    }
+
+    /**
+     * Installs the handlers of a new request on a channel from the pool. Handlers that already exist are replaced,
+     * new handlers are inserted after the handler that precedes them in the map. The pipeline is changed in the event
+     * loop of the channel, as Netty waits for the event loop if a pipeline is changed from another thread. If this
+     * other thread is an event loop as well, the two event loops may wait for each other.
+     *
+     * @param channel
+     *            The pooled channel
+     * @param channelHandlers
+     *            The handlers of the request
+     * @return The future that is done once the handlers are installed
+     */
+    static ChannelFuture replaceHandlers(final Channel channel,
+            final Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers) {
+        final ChannelPromise promise = channel.newPromise();
+        final Runnable replace = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replaceHandlers(channel.pipeline(), channelHandlers);
+                    promise.setSuccess();
+                } catch (Throwable t) {
+                    promise.setFailure(t);
+                }
+            }
+        };
+        if (channel.eventLoop().inEventLoop()) {
+            replace.run();
+        } else {
+            channel.eventLoop().execute(replace);
+        }
+        return promise;
+    }
+
+    private static void replaceHandlers(final ChannelPipeline pipeline,
+            final Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers) {
+        String previous = null;
+        for (Map.Entry<String, Pair<EventExecutorGroup, ChannelHandler>> entry : channelHandlers.entrySet()) {
+            final String name = entry.getKey();
+            final EventExecutorGroup executor = entry.getValue().element0();
+            final ChannelHandler handler = entry.getValue().element1();
+            if (pipeline.get(name) != null) {
+                pipeline.remove(name);
+            }
+            if (previous == null) {
+                pipeline.addFirst(executor, name, handler);
+            } else {
+                pipeline.addAfter(executor, previous, name, handler);
+            }
+            previous = name;
+        }
+    }
+
+    /**
+     * Gives a channel back after a reply has been received. If the channel is not pooled, nothing happens and the
+     * caller has to close the channel. Like {@link #replaceHandlers(Channel, Map)}, the handlers of the request are
+     * removed in the event loop of the channel.
+     *
+     * @param channel
+     *            The channel that is not used anymore
+     * @return True if the channel was pooled and will be given back
+     */
+    public static boolean release(final Channel channel) {
+        final Lease lease = channel.attr(LEASE_KEY).getAndSet(null);
+        if (lease == null) {
+            return false;
+        }
+        // the channel creator must not close the channel on shutdown
+        lease.channelCreator().removeRecipient(channel);
+        final Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                final ChannelPipeline pipeline = channel.pipeline();
+                for (String name : REQUEST_HANDLERS) {
+                    if (pipeline.get(name) != null) {
+                        pipeline.remove(name);
+                    }
+                }
+                if (!lease.connectionPool.offer(channel)) {
+                    LOG.debug("pool full or shut down, close channel {}", channel);
+                    channel.close();
+                }
+                lease.channelCreator().releaseTCP(lease.futureResponse());
+            }
+        };
+        if (channel.eventLoop().inEventLoop()) {
+            release.run();
+        } else {
+            channel.eventLoop().execute(release);
+        }
+        return true;
+    }
+
+    /**
+     * Closes channels that have been idle in the pool for too long. The event comes from the {@link HeartBeat}.
+     */
+    @Sharable
+    private final class IdleEviction extends ChannelInboundHandlerAdapter {
+        @Override
+        public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) throws Exception {
+            if (evt instanceof HeartBeat) {
+                // only evict if its idle in the pool, a channel in use is covered by the timeout of the request
+                if (remove(ctx.channel())) {
+                    LOG.debug("evict idle channel {}", ctx.channel());
+                    ctx.close();
+                }
+            } else {
+                ctx.fireUserEventTriggered(evt);
+            }
+        }
+    }
+}
@@ -181,10 +181,16 @@ public class HeartBeat extends ChannelDuplexHandler {
             long lastIoTime = Math.max(lastReadTime, lastWriteTime);
             long nextDelay = timeToHeartBeatMillis - (currentTime - lastIoTime);
             
-            if(peerConnection!=null && nextDelay <= 0) {
+            if (nextDelay > 0) {
+                return;
+            }
+            if (peerConnection != null) {
                 LOG.debug("sending heart beat to {}",peerConnection.remotePeer());
                 BaseFuture baseFuture = builder.peerConnection(peerConnection).start();
                 builder.notifyAutomaticFutures(baseFuture);
+            } else {
+                // nobody to ping, let the other handlers decide, e.g., the connection pool evicts idle channels
+                ctx.fireUserEventTriggered(HeartBeat.this);
             }
         }
     }
@@ -7,7 +7,6 @@ import io.netty.util.concurrent.GenericFutureListener;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
 
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
@@ -17,7 +16,7 @@ import net.tomp2p.peers.PeerAddress;
 
 public class PeerConnection {
 	final public static int HEART_BEAT_MILLIS = 2000;
-    final private Semaphore oneConnection = new Semaphore(1);
+	final public static int MAX_IN_FLIGHT = 16;
 
     final private PeerAddress remotePeer;
     final private ChannelCreator cc;
@@ -25,6 +24,10 @@ public class PeerConnection {
     final private Map<FutureChannelCreator, FutureResponse> map = new LinkedHashMap<FutureChannelCreator, FutureResponse>();
     final private FutureDone<Void> closeFuture = new FutureDone<Void>();
     private final int heartBeatMillis;
+    private final int maxInFlight;
+
+    // guarded by map
+    private int inFlight = 0;
 
     // these may be called from different threads, but they will never be called concurrently within this library
     private volatile ChannelFuture channelFuture;
@@ -39,9 +42,25 @@ public class PeerConnection {
      *            The channel creator where we can open a TCP connection
      */
     public PeerConnection(PeerAddress remotePeer, ChannelCreator cc, int heartBeatMillis) {
+        this(remotePeer, cc, heartBeatMillis, MAX_IN_FLIGHT);
+    }
+
+    /**
+     * If we don't have an open TCP connection, we first need a channel creator to open a channel.
+     * 
+     * @param remotePeer
+     *            The remote peer to connect to
+     * @param cc
+     *            The channel creator where we can open a TCP connection
+     * @param maxInFlight
+     *            The number of requests that may wait for a reply on this connection at the same time, 1 sends one
+     *            request after the other
+     */
+    public PeerConnection(PeerAddress remotePeer, ChannelCreator cc, int heartBeatMillis, int maxInFlight) {
         this.remotePeer = remotePeer;
         this.cc = cc;
         this.heartBeatMillis = heartBeatMillis;
+        this.maxInFlight = maxInFlight;
     }
 
     /**
@@ -58,11 +77,21 @@ public class PeerConnection {
         addCloseListener(channelFuture);
         this.cc = null;
         this.heartBeatMillis = heartBeatMillis;
+        this.maxInFlight = MAX_IN_FLIGHT;
     }
 
     public PeerConnection channelFuture(ChannelFuture channelFuture) {
         this.channelFuture = channelFuture;
         addCloseListener(channelFuture);
+        // the requests that waited for the connection can be sent now
+        channelFuture.addListener(new GenericFutureListener<ChannelFuture>() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess()) {
+                    acquireWaiting();
+                }
+            }
+        });
         return this;
     }
     
@@ -70,6 +99,22 @@ public class PeerConnection {
 	    return heartBeatMillis;
     }
 
+    /**
+     * @return The number of requests that may wait for a reply on this connection at the same time
+     */
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return The number of requests that currently wait for a reply on this connection
+     */
+    public int inFlight() {
+        synchronized (map) {
+            return inFlight;
+        }
+    }
+
     public ChannelFuture channelFuture() {
         return channelFuture;
     }
@@ -111,34 +156,68 @@ public class PeerConnection {
         return acquire(futureChannelCreator, futureResponse);
     }
 
+    /**
+     * Reserves a slot for a request on this connection. As replies are matched by their message id, several requests
+     * can be sent without waiting for the replies. Until the connection is open, only one request is sent, which opens
+     * the connection.
+     * 
+     * @param futureChannelCreator
+     *            The future that is notified once the request can be sent
+     * @param futureResponse
+     *            The future of the request, which frees the slot when it completes
+     * @return The future that is notified once the request can be sent
+     */
     private FutureChannelCreator acquire(final FutureChannelCreator futureChannelCreator,
             final FutureResponse futureResponse) {
-        if (oneConnection.tryAcquire()) {
-            futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
-                @Override
-                public void operationComplete(FutureResponse future) throws Exception {
-                    oneConnection.release();
-                    synchronized (map) {
-                        Iterator<Map.Entry<FutureChannelCreator, FutureResponse>> iterator = map.entrySet()
-                                .iterator();
-                        if (iterator.hasNext()) {
-                            Map.Entry<FutureChannelCreator, FutureResponse> entry = iterator.next();
-                            iterator.remove();
-                            acquire(entry.getKey(), entry.getValue());
-                        }
-                    }
-                }
-            });
-            futureChannelCreator.reserved(cc);
-            return futureChannelCreator;
-        } else {
-            synchronized (map) {
+        synchronized (map) {
+            if (!tryAcquire()) {
                 map.put(futureChannelCreator, futureResponse);
+                return futureChannelCreator;
             }
         }
+        reserved(futureChannelCreator, futureResponse);
         return futureChannelCreator;
     }
 
+    private boolean tryAcquire() {
+        // guarded by map. While connecting, the channel is open but not active yet
+        final ChannelFuture current = channelFuture;
+        if (inFlight == 0 || (inFlight < maxInFlight && current != null && current.channel().isActive())) {
+            inFlight++;
+            return true;
+        }
+        return false;
+    }
+
+    private void reserved(final FutureChannelCreator futureChannelCreator, final FutureResponse futureResponse) {
+        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+            @Override
+            public void operationComplete(FutureResponse future) throws Exception {
+                synchronized (map) {
+                    inFlight--;
+                }
+                acquireWaiting();
+            }
+        });
+        futureChannelCreator.reserved(cc);
+    }
+
+    private void acquireWaiting() {
+        final Map<FutureChannelCreator, FutureResponse> granted = new LinkedHashMap<FutureChannelCreator, FutureResponse>();
+        synchronized (map) {
+            Iterator<Map.Entry<FutureChannelCreator, FutureResponse>> iterator = map.entrySet().iterator();
+            while (iterator.hasNext() && tryAcquire()) {
+                Map.Entry<FutureChannelCreator, FutureResponse> entry = iterator.next();
+                iterator.remove();
+                granted.put(entry.getKey(), entry.getValue());
+            }
+        }
+        // notify outside the lock, as the listeners send the requests
+        for (Map.Entry<FutureChannelCreator, FutureResponse> entry : granted.entrySet()) {
+            reserved(entry.getKey(), entry.getValue());
+        }
+    }
+
     public ChannelCreator channelCreator() {
         return cc;
     }
@@ -222,7 +222,13 @@ public class RequestHandler<K extends FutureResponse> extends SimpleChannelInbou
         
         LOG.debug("report failure", cause);
         futureResponse.setFailedLater(cause);
-        ctx.close();
+        if (message.isKeepAlive()) {
+            // other requests may still wait for their replies on this connection, the multiplexer closes the
+            // connection if the failure is not caused by this request only
+            futureResponse.setResponseNow();
+        } else {
+            ctx.close();
+        }
     }
 
     @Override
@@ -276,7 +282,10 @@ public class RequestHandler<K extends FutureResponse> extends SimpleChannelInbou
             //set the success now, but trigger the notify when we closed the channel.
             futureResponse.setResponseLater(responseMessage); 
             //the channel creater adds a listener that sets futureResponse.setResponseNow, when the channel is closed
-            ctx.close();
+            //or when a pooled channel is given back
+            if (!ConnectionPool.release(ctx.channel())) {
+                ctx.close();
+            }
         } else {
             futureResponse.setResponse(responseMessage);
         }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandler;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.MessageID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The reply handler of a {@link PeerConnection}. Several requests can be sent over the same connection without waiting
+ * for the replies. Each request registers its {@link RequestHandler} here, and a reply is handed to the request
+ * handler with the same {@link MessageID}. Requests from the other peer are handed to the next handler, which is the
+ * dispatcher.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class RequestMultiplexer extends SimpleChannelInboundHandler<Message> {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestMultiplexer.class);
+
+    private static final AttributeKey<RequestMultiplexer> MULTIPLEXER_KEY = AttributeKey.valueOf("multiplexer");
+
+    private final Map<MessageID, ChannelInboundHandler> handlers = new ConcurrentHashMap<MessageID, ChannelInboundHandler>();
+
+    /**
+     * Returns the multiplexer of a connection. If there is none yet, e.g., on a connection that was opened by the other
+     * peer, a new one is added before the given handler. Like with pooled connections, the pipeline is changed in the
+     * event loop of the channel. Since the request is written afterwards, the multiplexer is in place before the reply
+     * arrives.
+     *
+     * @param channel
+     *            The channel of the connection
+     * @param before
+     *            The name of the handler to add the multiplexer before
+     * @return The multiplexer of this connection
+     */
+    public static RequestMultiplexer getOrAdd(final Channel channel, final String before) {
+        final RequestMultiplexer requestMultiplexer = new RequestMultiplexer();
+        final RequestMultiplexer current = channel.attr(MULTIPLEXER_KEY).setIfAbsent(requestMultiplexer);
+        if (current != null) {
+            return current;
+        }
+        final Runnable add = new Runnable() {
+            @Override
+            public void run() {
+                final ChannelPipeline pipeline = channel.pipeline();
+                if (pipeline.get("handler") != null) {
+                    pipeline.replace("handler", "handler", requestMultiplexer);
+                } else if (before == null || pipeline.get(before) == null) {
+                    pipeline.addLast("handler", requestMultiplexer);
+                } else {
+                    pipeline.addBefore(before, "handler", requestMultiplexer);
+                }
+            }
+        };
+        if (channel.eventLoop().inEventLoop()) {
+            add.run();
+        } else {
+            channel.eventLoop().execute(add);
+        }
+        return requestMultiplexer;
+    }
+
+    /**
+     * Sets the multiplexer of a new connection, which is already part of the handlers of the channel.
+     *
+     * @param channel
+     *            The channel of the connection
+     * @return This class
+     */
+    RequestMultiplexer attach(final Channel channel) {
+        channel.attr(MULTIPLEXER_KEY).set(this);
+        return this;
+    }
+
+    /**
+     * Registers the handler for the reply of a request. The handler is removed once the future of the request
+     * completes.
+     *
+     * @param futureResponse
+     *            The future of the request
+     * @param handler
+     *            The handler that gets the reply
+     */
+    public void register(final FutureResponse futureResponse, final ChannelInboundHandler handler) {
+        final MessageID messageID = new MessageID(futureResponse.getRequest());
+        handlers.put(messageID, handler);
+        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+            @Override
+            public void operationComplete(final FutureResponse future) throws Exception {
+                handlers.remove(messageID);
+            }
+        });
+    }
+
+    /**
+     * @return The number of requests that wait for a reply
+     */
+    public int pending() {
+        return handlers.size();
+    }
+
+    @Override
+    protected void channelRead0(final ChannelHandlerContext ctx, final Message message) throws Exception {
+        if (message.isRequest()) {
+            ctx.fireChannelRead(message);
+            return;
+        }
+        final ChannelInboundHandler handler = handlers.get(new MessageID(message));
+        if (handler == null) {
+            LOG.debug("no request waits for reply {}, probably timed out", message);
+            return;
+        }
+        handler.channelRead(ctx, message);
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) throws Exception {
+        final List<ChannelInboundHandler> current = new ArrayList<ChannelInboundHandler>(handlers.values());
+        if (current.isEmpty()) {
+            LOG.debug("exception on connection without pending requests", cause);
+        }
+        for (ChannelInboundHandler handler : current) {
+            handler.exceptionCaught(ctx, cause);
+        }
+        ctx.close();
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        // the requests that are still waiting will not get a reply anymore
+        for (ChannelInboundHandler handler : new ArrayList<ChannelInboundHandler>(handlers.values())) {
+            if (handler instanceof RequestHandler) {
+                ((RequestHandler<?>) handler).futureResponse().setResponseNow();
+            }
+        }
+        ctx.fireChannelInactive();
+    }
+}
@@ -18,13 +18,19 @@ package net.tomp2p.connection;
 
 import io.netty.channel.EventLoopGroup;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -41,24 +47,51 @@ import net.tomp2p.p2p.builder.DHTBuilder;
 
 /**
  * Reserves a block of connections.
- * 
+ * <p>
+ * Permits are handed out without blocking any thread. A request that cannot be
+ * served right away is queued and served by the thread that releases the
+ * permits. Requests are served in FIFO order within a {@link Priority} class,
+ * and {@link Priority#USER} requests are served before
+ * {@link Priority#MAINTENANCE} requests. A request may only overtake an older
+ * request if they do not wait for the same type of permits. Thus, a request
+ * for many TCP permits does not hold back a request for UDP permits, but it
+ * cannot be starved by a stream of small TCP requests.
+ * <p>
+ * The listeners of the {@link FutureChannelCreator} are called by a single
+ * thread, since listeners may block, e.g., until the channel creator is shut
+ * down.
+ *
  * @author Thomas Bocek
- * 
+ *
  */
 public class Reservation {
 
+	/**
+	 * The classes of requests. The order of the constants is the order in
+	 * which waiting requests are served.
+	 */
+	public enum Priority {
+		USER, MAINTENANCE
+	};
+
 	private final int maxPermitsUDP;
 	private final int maxPermitsTCP;
 	private final int maxPermitsPermanentTCP;
 
-	private final Semaphore semaphoreUPD;
-	private final Semaphore semaphoreTCP;
-	private final Semaphore semaphorePermanentTCP;
+	// guarded by waiting
+	private int availableUDP;
+	private int availableTCP;
+	private int availablePermanentTCP;
+	private final Map<Priority, Deque<Waiter>> waiting = new EnumMap<Priority, Deque<Waiter>>(Priority.class);
+	private int pending = 0;
+	private long reserved = 0;
+	private long waitNanos = 0;
+	private long maxWaitNanos = 0;
 
 	private final ChannelClientConfiguration channelClientConfiguration;
 
 	private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
-	// single thread
+	// single thread, only notifies the listeners, it never waits for permits
 	private final ExecutorService executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, queue);
 	private final EventLoopGroup workerGroup;
 
@@ -73,9 +106,12 @@ public class Reservation {
 
 	private final FutureDone<Void> futureReservationDone = new FutureDone<Void>();
 
+	// null if disabled
+	private final ConnectionPool connectionPool;
+
 	/**
 	 * Creates a new reservation class with the 3 permits.
-	 * 
+	 *
 	 * @param workerGroup
 	 *            The worker group for both UDP and TCP channels. This will not
 	 *            be shutdown in this class, you need to shutdown it outside.
@@ -91,24 +127,110 @@ public class Reservation {
 		this.maxPermitsUDP = channelClientConfiguration.maxPermitsUDP();
 		this.maxPermitsTCP = channelClientConfiguration.maxPermitsTCP();
 		this.maxPermitsPermanentTCP = channelClientConfiguration.maxPermitsPermanentTCP();
-		this.semaphoreUPD = new Semaphore(maxPermitsUDP);
-		this.semaphoreTCP = new Semaphore(maxPermitsTCP);
-		this.semaphorePermanentTCP = new Semaphore(maxPermitsPermanentTCP);
+		this.availableUDP = maxPermitsUDP;
+		this.availableTCP = maxPermitsTCP;
+		this.availablePermanentTCP = maxPermitsPermanentTCP;
+		for (Priority priority : Priority.values()) {
+			waiting.put(priority, new ArrayDeque<Waiter>());
+		}
 		this.channelClientConfiguration = channelClientConfiguration;
+		if (channelClientConfiguration.maxPooledTCPPerPeer() > 0) {
+			this.connectionPool = new ConnectionPool(channelClientConfiguration.maxPooledTCPPerPeer(),
+			        channelClientConfiguration.pooledTCPIdleMillis());
+		} else {
+			this.connectionPool = null;
+		}
 	}
 
 	/**
-	 * @return The pending number of requests that are scheduled but not
-	 *         executed yet.
+	 * @return The pool for the short-lived TCP connections or null if pooling
+	 *         is disabled
+	 */
+	public ConnectionPool connectionPool() {
+		return connectionPool;
+	}
+
+	/**
+	 * @return The pending number of requests that wait for permits
 	 */
 	public int pendingRequests() {
-		return queue.size();
+		synchronized (waiting) {
+			return pending;
+		}
+	}
+
+	/**
+	 * @param priority
+	 *            The class of the requests
+	 * @return The pending number of requests of this class that wait for
+	 *         permits
+	 */
+	public int pendingRequests(final Priority priority) {
+		synchronized (waiting) {
+			return waiting.get(priority).size();
+		}
+	}
+
+	/**
+	 * @return The number of requests that got their permits so far
+	 */
+	public long reservedRequests() {
+		synchronized (waiting) {
+			return reserved;
+		}
+	}
+
+	/**
+	 * @return The average time in milliseconds a request waited for its
+	 *         permits
+	 */
+	public double averageWaitMillis() {
+		synchronized (waiting) {
+			return reserved == 0 ? 0 : waitNanos / (reserved * 1000000d);
+		}
+	}
+
+	/**
+	 * @return The longest time in milliseconds a request waited for its
+	 *         permits
+	 */
+	public long maxWaitMillis() {
+		synchronized (waiting) {
+			return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+		}
+	}
+
+	/**
+	 * @return The number of short-lived UDP connections that are not reserved
+	 */
+	public int availablePermitsUDP() {
+		synchronized (waiting) {
+			return availableUDP;
+		}
+	}
+
+	/**
+	 * @return The number of short-lived TCP connections that are not reserved
+	 */
+	public int availablePermitsTCP() {
+		synchronized (waiting) {
+			return availableTCP;
+		}
+	}
+
+	/**
+	 * @return The number of permanent TCP connections that are not reserved
+	 */
+	public int availablePermitsPermanentTCP() {
+		synchronized (waiting) {
+			return availablePermanentTCP;
+		}
 	}
 
 	/**
 	 * This will calculate the number of required connection for routing and
 	 * request messages.
-	 * 
+	 *
 	 * @param routingConfiguration
 	 *            Contains the number of routing requests in parallel
 	 * @param requestP2PConfiguration
@@ -145,7 +267,7 @@ public class Reservation {
 
 	/**
 	 * Create a connection creator for short-lived connections.
-	 * 
+	 *
 	 * @param permitsUDP
 	 *            The number of short-lived UDP connections
 	 * @param permitsTCP
@@ -153,6 +275,22 @@ public class Reservation {
 	 * @return The future channel creator
 	 */
 	public FutureChannelCreator create(final int permitsUDP, final int permitsTCP) {
+		return create(permitsUDP, permitsTCP, Priority.USER);
+	}
+
+	/**
+	 * Create a connection creator for short-lived connections.
+	 *
+	 * @param permitsUDP
+	 *            The number of short-lived UDP connections
+	 * @param permitsTCP
+	 *            The number of short-lived TCP connections
+	 * @param priority
+	 *            The class of the request, maintenance requests wait for user
+	 *            requests
+	 * @return The future channel creator
+	 */
+	public FutureChannelCreator create(final int permitsUDP, final int permitsTCP, final Priority priority) {
 		if (permitsUDP > maxPermitsUDP) {
 			throw new IllegalArgumentException("cannot aquire more UDP connections (" + permitsUDP + ") than maximum "
 			        + maxPermitsUDP);
@@ -161,35 +299,12 @@ public class Reservation {
 			throw new IllegalArgumentException("cannot aquire more TCP connections (" + permitsTCP + ") than maximum "
 			        + maxPermitsTCP);
 		}
-		final FutureChannelCreator futureChannelCreator = new FutureChannelCreator();
-		read.lock();
-		try {
-			if (shutdown) {
-				return futureChannelCreator.setFailed("shutting down");
-			}
-
-			FutureDone<Void> futureChannelCreationDone = new FutureDone<Void>();
-			futureChannelCreationDone.addListener(new BaseFutureAdapter<FutureDone<Void>>() {
-				@Override
-				public void operationComplete(final FutureDone<Void> future) throws Exception {
-					// release the permits in all cases, otherwise we may see
-					// inconsitencies
-					semaphoreUPD.release(permitsUDP);
-					semaphoreTCP.release(permitsTCP);
-				}
-			}, false); // false is important, to be always the first listener
-			executor.execute(new WaitReservation(futureChannelCreator, futureChannelCreationDone, permitsUDP,
-			        permitsTCP));
-			return futureChannelCreator;
-
-		} finally {
-			read.unlock();
-		}
+		return reserve(new Waiter(permitsUDP, permitsTCP, 0, false, priority));
 	}
 
 	/**
 	 * Create a connection creator for permanent connections.
-	 * 
+	 *
 	 * @param permitsPermanentTCP
 	 *            The number of long-lived TCP connections
 	 * @return The future channel creator
@@ -199,32 +314,112 @@ public class Reservation {
 			throw new IllegalArgumentException("cannot aquire more TCP connections (" + permitsPermanentTCP
 			        + ") than maximum " + maxPermitsPermanentTCP);
 		}
-		final FutureChannelCreator futureChannelCreator = new FutureChannelCreator();
+		return reserve(new Waiter(0, 0, permitsPermanentTCP, true, Priority.USER));
+	}
+
+	private FutureChannelCreator reserve(final Waiter waiter) {
 		read.lock();
 		try {
 			if (shutdown) {
-				return futureChannelCreator.setFailed("shutting down");
+				return waiter.futureChannelCreator.setFailed("shutting down");
 			}
-			FutureDone<Void> futureChannelCreationDone = new FutureDone<Void>();
-			futureChannelCreationDone.addListener(new BaseFutureAdapter<FutureDone<Void>>() {
+			waiter.futureChannelCreationDone.addListener(new BaseFutureAdapter<FutureDone<Void>>() {
 				@Override
 				public void operationComplete(final FutureDone<Void> future) throws Exception {
 					// release the permits in all cases, otherwise we may see
 					// inconsitencies
-					semaphorePermanentTCP.release(permitsPermanentTCP);
+					release(waiter);
 				}
 			}, false); // false is important, to be always the first listener
-			executor.execute(new WaitReservationPermanent(futureChannelCreator, futureChannelCreationDone,
-			        permitsPermanentTCP));
-			return futureChannelCreator;
+			final List<Waiter> granted;
+			synchronized (waiting) {
+				waiting.get(waiter.priority).addLast(waiter);
+				pending++;
+				granted = grant();
+			}
+			notify(granted);
+			return waiter.futureChannelCreator;
 		} finally {
 			read.unlock();
 		}
 	}
 
+	private void release(final Waiter waiter) {
+		final List<Waiter> granted;
+		synchronized (waiting) {
+			availableUDP += waiter.permitsUDP;
+			availableTCP += waiter.permitsTCP;
+			availablePermanentTCP += waiter.permitsPermanentTCP;
+			granted = grant();
+		}
+		notify(granted);
+	}
+
+	/**
+	 * Hands out the available permits to the waiting requests. Needs to be
+	 * called while holding the lock on waiting.
+	 *
+	 * @return The requests that got their permits
+	 */
+	private List<Waiter> grant() {
+		if (pending == 0) {
+			return Collections.emptyList();
+		}
+		final long now = System.nanoTime();
+		List<Waiter> granted = null;
+		// a type is blocked if an older request waits for it
+		boolean blockedUDP = false;
+		boolean blockedTCP = false;
+		boolean blockedPermanentTCP = false;
+		for (Deque<Waiter> queue : waiting.values()) {
+			for (Iterator<Waiter> iterator = queue.iterator(); iterator.hasNext();) {
+				final Waiter waiter = iterator.next();
+				final boolean wantsUDP = waiter.permitsUDP > 0;
+				final boolean wantsTCP = waiter.permitsTCP > 0;
+				final boolean wantsPermanentTCP = waiter.permitsPermanentTCP > 0;
+				if ((wantsUDP && (blockedUDP || waiter.permitsUDP > availableUDP))
+				        || (wantsTCP && (blockedTCP || waiter.permitsTCP > availableTCP))
+				        || (wantsPermanentTCP && (blockedPermanentTCP || waiter.permitsPermanentTCP > availablePermanentTCP))) {
+					blockedUDP |= wantsUDP;
+					blockedTCP |= wantsTCP;
+					blockedPermanentTCP |= wantsPermanentTCP;
+					if (blockedUDP && blockedTCP && blockedPermanentTCP) {
+						return granted == null ? Collections.<Waiter> emptyList() : granted;
+					}
+					continue;
+				}
+				availableUDP -= waiter.permitsUDP;
+				availableTCP -= waiter.permitsTCP;
+				availablePermanentTCP -= waiter.permitsPermanentTCP;
+				iterator.remove();
+				pending--;
+				final long wait = now - waiter.created;
+				reserved++;
+				waitNanos += wait;
+				maxWaitNanos = Math.max(maxWaitNanos, wait);
+				if (granted == null) {
+					granted = new ArrayList<Waiter>(1);
+				}
+				granted.add(waiter);
+			}
+		}
+		return granted == null ? Collections.<Waiter> emptyList() : granted;
+	}
+
+	private void notify(final List<Waiter> granted) {
+		for (Waiter waiter : granted) {
+			try {
+				executor.execute(waiter);
+			} catch (RejectedExecutionException e) {
+				// we are shutting down
+				waiter.fail();
+			}
+		}
+	}
+
 	/**
 	 * Shutdown all the channel creators out there.
-	 * 
+	 *
 	 * @return The future when the shutdown is complete
 	 */
 	public FutureDone<Void> shutdown() {
@@ -239,19 +434,25 @@ public class Reservation {
 			write.unlock();
 		}
 
-		// fast shutdown for those that are in the queue is not required. We
-		// could let the executor finish since the
-		// shutdown flag is set and the future will be set as well to
-		// "shutting down":
-
-		for (Runnable r : executor.shutdownNow()) {
-			if (r instanceof WaitReservation) {
-				WaitReservation wr = (WaitReservation) r;
-				wr.futureChannelCreator().setFailed("shutting down");
-			} else {
-				WaitReservationPermanent wr = (WaitReservationPermanent) r;
-				wr.futureChannelCreator().setFailed("shutting down");
+		// fast shutdown for those that are in the queue
+		final List<Waiter> failed = new ArrayList<Waiter>();
+		synchronized (waiting) {
+			for (Deque<Waiter> queue : waiting.values()) {
+				failed.addAll(queue);
+				queue.clear();
 			}
+			pending = 0;
+		}
+		for (Waiter waiter : failed) {
+			waiter.futureChannelCreator.setFailed("shutting down");
+		}
+		// those that got their permits but are not notified yet
+		for (Runnable r : executor.shutdownNow()) {
+			((Waiter) r).fail();
+		}
+
+		if (connectionPool != null) {
+			connectionPool.shutdown();
 		}
 
 		// the channelCreator does not change anymore from here on
@@ -264,17 +465,11 @@ public class Reservation {
 				// this is very important that we set first the listener and
 				// then call shutdown. Otherwise, the order of
 				// the listener calls is not guaranteed and we may call this
-				// listener before the semphore.release,
-				// causing an exception.
+				// listener before the permits are released.
 				channelCreator.shutdownFuture().addListener(new BaseFutureAdapter<FutureDone<Void>>() {
 					@Override
 					public void operationComplete(final FutureDone<Void> future) throws Exception {
 						if (completeCounter.incrementAndGet() == size) {
-							// we can block here as we block in
-							// GlobalEventExecutor.INSTANCE
-							semaphoreUPD.acquireUninterruptibly(maxPermitsUDP);
-							semaphoreTCP.acquireUninterruptibly(maxPermitsTCP);
-							semaphorePermanentTCP.acquireUninterruptibly(maxPermitsPermanentTCP);
 							shutdownFuture().setDone();
 						}
 					}
@@ -296,7 +491,7 @@ public class Reservation {
 	/**
 	 * Adds a channel creator to the set and also adds it the the
 	 * shutdownlistener.
-	 * 
+	 *
 	 * @param channelCreator
 	 *            The channel creator
 	 */
@@ -319,40 +514,46 @@ public class Reservation {
 	}
 
 	/**
-	 * Tries to reserve a channel creator. If too many channel already created,
-	 * wait until channels are closed. This waiter is for the short-lived
-	 * connections.
-	 * 
+	 * A request for permits. Once the permits are granted, it is executed by
+	 * the single thread that creates the {@link ChannelCreator} and notifies
+	 * the listeners.
+	 *
 	 * @author Thomas Bocek
-	 * 
+	 *
 	 */
-	private class WaitReservation implements Runnable {
-		private final FutureChannelCreator futureChannelCreator;
-		private final FutureDone<Void> futureChannelCreationShutdown;
+	private final class Waiter implements Runnable {
+		private final FutureChannelCreator futureChannelCreator = new FutureChannelCreator();
+		// the ChannelCreator shutdown future needs to be passed since we need
+		// it for Reservation#shutdown()
+		private final FutureDone<Void> futureChannelCreationDone = new FutureDone<Void>();
 		private final int permitsUDP;
 		private final int permitsTCP;
+		private final int permitsPermanentTCP;
+		private final boolean permanent;
+		private final Priority priority;
+		private final long created = System.nanoTime();
 
 		/**
-		 * Creates a reservation that returns a {@link ChannelCreator} in a
-		 * future once we have the semaphore.
-		 * 
-		 * @param futureChannelCreator
-		 *            The status of the creating
-		 * @param futureChannelCreationShutdown
-		 *            The {@link ChannelCreator} shutdown feature needs to be
-		 *            passed since we need it for {@link Reservation#shutdown()}
-		 *            .
+		 * Creates a request for permits.
+		 *
 		 * @param permitsUDP
-		 *            The number of permits for UDP
+		 *            The number of permits for short-lived UDP connections
 		 * @param permitsTCP
-		 *            The number of permits for TCP
+		 *            The number of permits for short-lived TCP connections
+		 * @param permitsPermanentTCP
+		 *            The number of permits for permanent TCP connections
+		 * @param permanent
+		 *            True if the channel creator is for permanent connections
+		 * @param priority
+		 *            The class of the request
 		 */
-		public WaitReservation(final FutureChannelCreator futureChannelCreator,
-		        final FutureDone<Void> futureChannelCreationShutdown, final int permitsUDP, final int permitsTCP) {
-			this.futureChannelCreator = futureChannelCreator;
-			this.futureChannelCreationShutdown = futureChannelCreationShutdown;
+		private Waiter(final int permitsUDP, final int permitsTCP, final int permitsPermanentTCP,
+		        final boolean permanent, final Priority priority) {
 			this.permitsUDP = permitsUDP;
 			this.permitsTCP = permitsTCP;
+			this.permitsPermanentTCP = permitsPermanentTCP;
+			this.permanent = permanent;
+			this.priority = priority;
 		}
 
 		@Override
@@ -361,26 +562,16 @@ public class Reservation {
 			read.lock();
 			try {
 				if (shutdown) {
-					futureChannelCreator.setFailed("shutting down");
+					fail();
 					return;
 				}
-
-				try {
-					semaphoreUPD.acquire(permitsUDP);
-				} catch (InterruptedException e) {
-					futureChannelCreator.setFailed(e);
-					return;
+				if (permanent) {
+					channelCreator = new ChannelCreator(workerGroup, futureChannelCreationDone, 0,
+					        permitsPermanentTCP, channelClientConfiguration);
+				} else {
+					channelCreator = new ChannelCreator(workerGroup, futureChannelCreationDone, permitsUDP,
+					        permitsTCP, channelClientConfiguration, connectionPool);
 				}
-				try {
-					semaphoreTCP.acquire(permitsTCP);
-				} catch (InterruptedException e) {
-					semaphoreUPD.release(permitsUDP);
-					futureChannelCreator.setFailed(e);
-					return;
-				}
-
-				channelCreator = new ChannelCreator(workerGroup, futureChannelCreationShutdown, permitsUDP, permitsTCP,
-				        channelClientConfiguration);
 				addToSet(channelCreator);
 			} finally {
 				read.unlock();
@@ -388,74 +579,13 @@ public class Reservation {
 			futureChannelCreator.reserved(channelCreator);
 		}
 
-		private FutureChannelCreator futureChannelCreator() {
-			return futureChannelCreator;
-		}
-
-	}
-
-	/**
-	 * Tries to reserve a channel creator. If too many channel already created,
-	 * wait until channels are closed. This waiter is for the long-lived
-	 * connections.
-	 * 
-	 * @author Thomas Bocek
-	 * 
-	 */
-	private final class WaitReservationPermanent implements Runnable {
-		private final FutureChannelCreator futureChannelCreator;
-		private final FutureDone<Void> futureChannelCreationShutdown;
-		private final int permitsPermanentTCP;
-
 		/**
-		 * Creates a reservation that returns a {@link ChannelCreator} in a
-		 * future once we have the semaphore.
-		 * 
-		 * @param futureChannelCreator
-		 *            The status of the creating
-		 * @param futureChannelCreationShutdown
-		 *            The {@link ChannelCreator} shutdown feature needs to be
-		 *            passed since we need it for {@link Reservation#shutdown()}
-		 *            .
-		 * @param permitsPermanentTCP
-		 *            The number of permits
+		 * Gives back the permits of a request that will not get a channel
+		 * creator.
 		 */
-		private WaitReservationPermanent(final FutureChannelCreator futureChannelCreator,
-		        final FutureDone<Void> futureChannelCreationShutdown, final int permitsPermanentTCP) {
-			this.futureChannelCreator = futureChannelCreator;
-			this.futureChannelCreationShutdown = futureChannelCreationShutdown;
-			this.permitsPermanentTCP = permitsPermanentTCP;
-		}
-
-		@Override
-		public void run() {
-			ChannelCreator channelCreator;
-			read.lock();
-			try {
-				if (shutdown) {
-					futureChannelCreator.setFailed("shutting down");
-					return;
-				}
-
-				try {
-					semaphorePermanentTCP.acquire(permitsPermanentTCP);
-				} catch (InterruptedException e) {
-					futureChannelCreator.setFailed(e);
-					return;
-				}
-
-				channelCreator = new ChannelCreator(workerGroup, futureChannelCreationShutdown, 0, permitsPermanentTCP,
-				        channelClientConfiguration);
-				addToSet(channelCreator);
-			} finally {
-				read.unlock();
-			}
-			futureChannelCreator.reserved(channelCreator);
-		}
-
-		private FutureChannelCreator futureChannelCreator() {
-			return futureChannelCreator;
+		private void fail() {
+			futureChannelCreationDone.setFailed("shutting down");
+			futureChannelCreator.setFailed("shutting down");
 		}
 	}
-
 }
@@ -18,7 +18,6 @@ package net.tomp2p.connection;
 
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.ChannelPipeline;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.GenericFutureListener;
@@ -136,7 +135,7 @@ public class Sender {
 		final ChannelFuture channelFuture;
 		if (peerConnection != null && peerConnection.channelFuture() != null
 		        && peerConnection.channelFuture().channel().isActive()) {
-			channelFuture = sendTCPPeerConnection(peerConnection, handler, channelCreator, futureResponse);
+			channelFuture = sendTCPPeerConnection(peerConnection, handler, futureResponse);
 			afterConnect(futureResponse, message, channelFuture, handler == null);
 		} else if (channelCreator != null) {
 			final TimeoutFactory timeoutHandler = createTimeoutHandler(futureResponse, idleTCPSeconds, handler == null);
@@ -146,8 +145,10 @@ public class Sender {
 				        peerConnection, timeoutHandler);
 			} else {
 				recipient = message.getRecipient().createSocketTCP();
+				// only a plain request and reply can give the channel back to the pool
+				final boolean pooled = peerConnection == null && timeoutHandler != null && !message.isKeepAlive();
 				channelFuture = sendTCPCreateChannel(recipient, channelCreator, peerConnection, handler,
-				        timeoutHandler, connectTimeoutMillis, futureResponse);
+				        timeoutHandler, connectTimeoutMillis, futureResponse, pooled);
 				afterConnect(futureResponse, message, channelFuture, handler == null);
 			}
 		}
@@ -175,7 +176,7 @@ public class Sender {
 				if (futureDone.isSuccess()) {
 					InetSocketAddress recipient = PeerSocketAddress.createSocketTCP(futureDone.getObject());
 					ChannelFuture channelFuture = sendTCPCreateChannel(recipient, channelCreator, peerConnection,
-					        handler, timeoutHandler, connectTimeoutMillis, futureResponse);
+					        handler, timeoutHandler, connectTimeoutMillis, futureResponse, false);
 					afterConnect(futureResponse, message, channelFuture, handler == null);
 
 					futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
@@ -245,8 +246,8 @@ public class Sender {
 	}
 
 	private ChannelFuture sendTCPCreateChannel(InetSocketAddress recipient, ChannelCreator channelCreator,
-	        PeerConnection peerConnection, ChannelHandler handler, TimeoutFactory timeoutHandler,
-	        int connectTimeoutMillis, FutureResponse futureResponse) {
+	        PeerConnection peerConnection, SimpleChannelInboundHandler<Message> handler, TimeoutFactory timeoutHandler,
+	        int connectTimeoutMillis, FutureResponse futureResponse, boolean pooled) {
 
 		final Map<String, Pair<EventExecutorGroup, ChannelHandler>> handlers;
 
@@ -275,7 +276,15 @@ public class Sender {
 			handlers.put("dispatcher", new Pair<EventExecutorGroup, ChannelHandler>(null, dispatcher));
 		}
 
-		if (timeoutHandler != null) {
+		RequestMultiplexer requestMultiplexer = null;
+		if (peerConnection != null) {
+			// further requests on this connection do not wait for this reply
+			requestMultiplexer = new RequestMultiplexer();
+			if (handler != null) {
+				requestMultiplexer.register(futureResponse, handler);
+			}
+			handlers.put("handler", new Pair<EventExecutorGroup, ChannelHandler>(null, requestMultiplexer));
+		} else if (timeoutHandler != null) {
 			handlers.put("handler", new Pair<EventExecutorGroup, ChannelHandler>(null, handler));
 		}
 
@@ -286,29 +295,32 @@ public class Sender {
 		}
 
 		ChannelFuture channelFuture = channelCreator.createTCP(recipient, connectTimeoutMillis, handlers,
-		        futureResponse);
+		        futureResponse, pooled);
 
 		if (peerConnection != null && channelFuture!=null) {
+			requestMultiplexer.attach(channelFuture.channel());
 			peerConnection.channelFuture(channelFuture);
 			heartBeat.peerConnection(peerConnection);
 		}
 		return channelFuture;
 	}
 
-	private ChannelFuture sendTCPPeerConnection(PeerConnection peerConnection, ChannelHandler handler,
-	        final ChannelCreator channelCreator, final FutureResponse futureResponse) {
-		// if the channel gets closed, the future should get notified
+	private ChannelFuture sendTCPPeerConnection(PeerConnection peerConnection,
+	        SimpleChannelInboundHandler<Message> handler, final FutureResponse futureResponse) {
 		ChannelFuture channelFuture = peerConnection.channelFuture();
-		// channelCreator can be null if we don't need to create any channels
-		if (channelCreator != null) {
-			channelCreator.setupCloseListener(channelFuture, futureResponse);
-		}
-		ChannelPipeline pipeline = channelFuture.channel().pipeline();
 
-		// we need to replace the handler if this comes from the peer that
-		// create a peerconnection, otherwise we
-		// need to add a handler
-		addOrReplace(pipeline, "dispatcher", "handler", handler);
+		// the connection may have been opened by the other peer, then we
+		// need to add a multiplexer before the dispatcher
+		RequestMultiplexer requestMultiplexer = RequestMultiplexer.getOrAdd(channelFuture.channel(), "dispatcher");
+		if (handler != null) {
+			requestMultiplexer.register(futureResponse, handler);
+		}
+		// if the channel gets closed, the future should get notified. The
+		// multiplexer does this for all its requests, but the channel may
+		// have been closed before we registered
+		if (!channelFuture.channel().isActive()) {
+			futureResponse.setFailed("channel closed before the request could be sent");
+		}
 		// uncomment this if the recipient should also heartbeat
 		// addIfAbsent(pipeline, "handler", "heartbeat",
 		// new HeartBeat(2, pingBuilder).peerConnection(peerConnection));
@@ -331,21 +343,6 @@ public class Sender {
 	// }
 	// }
 
-	private boolean addOrReplace(ChannelPipeline pipeline, String before, String name, ChannelHandler channelHandler) {
-		List<String> names = pipeline.names();
-		if (names.contains(name)) {
-			pipeline.replace(name, name, channelHandler);
-			return false;
-		} else {
-			if (before == null) {
-				pipeline.addFirst(name, channelHandler);
-			} else {
-				pipeline.addBefore(before, name, channelHandler);
-			}
-			return true;
-		}
-	}
-
 	/**
 	 * Send a message via UDP.
 	 * 
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The transport of the Netty channels. {@link #EPOLL} uses the native epoll transport of Netty on Linux, which has
+ * less system call overhead and supports SO_REUSEPORT. Since it needs the netty-transport-native-epoll library, the
+ * classes are loaded by name, and if they are missing or the native library cannot be loaded, NIO is used instead.
+ * <p>
+ * The event loop groups are created with {@link #newEventLoopGroup(int, ThreadFactory)}. The channels have to match
+ * the event loop group they are registered with, so {@link ChannelServer} and {@link ChannelCreator} take the
+ * transport from the event loop group with {@link #of(EventLoopGroup)}.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public enum Transport {
+    /**
+     * Java NIO, available everywhere.
+     */
+    NIO,
+    /**
+     * Native epoll, falls back to NIO if not available.
+     */
+    EPOLL,
+    /**
+     * Native epoll if available, NIO otherwise.
+     */
+    AUTO;
+
+    private static final Logger LOG = LoggerFactory.getLogger(Transport.class);
+
+    /**
+     * Returns the transport that is used for this setting.
+     *
+     * @return NIO or EPOLL
+     */
+    public Transport resolve() {
+        if (this == NIO) {
+            return NIO;
+        }
+        return Epoll.AVAILABLE ? EPOLL : NIO;
+    }
+
+    /**
+     * @return True if the native epoll transport can be used
+     */
+    public static boolean isEpollAvailable() {
+        return Epoll.AVAILABLE;
+    }
+
+    /**
+     * @param eventLoopGroup
+     *            The event loop group that the channels are registered with
+     * @return The transport of the event loop group, NIO or EPOLL
+     */
+    public static Transport of(final EventLoopGroup eventLoopGroup) {
+        if (Epoll.AVAILABLE && Epoll.eventLoopGroup.isInstance(eventLoopGroup)) {
+            return EPOLL;
+        }
+        return NIO;
+    }
+
+    /**
+     * Creates the event loop group for this transport.
+     *
+     * @param nThreads
+     *            The number of threads, 0 for the Netty default
+     * @param threadFactory
+     *            The factory for the threads
+     * @return The new event loop group
+     */
+    public EventLoopGroup newEventLoopGroup(final int nThreads, final ThreadFactory threadFactory) {
+        if (resolve() == NIO) {
+            if (this == EPOLL) {
+                LOG.warn("native epoll transport not available, use NIO instead", Epoll.CAUSE);
+            }
+            return new NioEventLoopGroup(nThreads, threadFactory);
+        }
+        try {
+            return Epoll.eventLoopGroup.getConstructor(int.class, ThreadFactory.class).newInstance(nThreads,
+                    threadFactory);
+        } catch (Exception e) {
+            throw new IllegalStateException("cannot create epoll event loop group", e);
+        }
+    }
+
+    /**
+     * @return The class of UDP channels
+     */
+    public Class<? extends Channel> datagramChannel() {
+        return resolve() == NIO ? NioDatagramChannel.class : Epoll.datagramChannel;
+    }
+
+    /**
+     * @return The class of outgoing TCP channels
+     */
+    public Class<? extends Channel> socketChannel() {
+        return resolve() == NIO ? NioSocketChannel.class : Epoll.socketChannel;
+    }
+
+    /**
+     * @return The class of listening TCP channels
+     */
+    public Class<? extends ServerChannel> serverSocketChannel() {
+        return resolve() == NIO ? NioServerSocketChannel.class : Epoll.serverSocketChannel;
+    }
+
+    /**
+     * @return The SO_REUSEPORT option or null if this transport does not support it
+     */
+    public ChannelOption<Boolean> reusePort() {
+        return resolve() == NIO ? null : Epoll.reusePort;
+    }
+
+    /**
+     * Loads the epoll classes on first use.
+     */
+    @SuppressWarnings("unchecked")
+    private static final class Epoll {
+        private static final boolean AVAILABLE;
+        private static final Throwable CAUSE;
+        private static Class<? extends EventLoopGroup> eventLoopGroup;
+        private static Class<? extends Channel> datagramChannel;
+        private static Class<? extends Channel> socketChannel;
+        private static Class<? extends ServerChannel> serverSocketChannel;
+        private static ChannelOption<Boolean> reusePort;
+
+        static {
+            // the classes are only there with netty-transport-native-epoll
+            boolean available = false;
+            Throwable cause = null;
+            try {
+                final ClassLoader classLoader = Transport.class.getClassLoader();
+                final Class<?> epoll = Class.forName("io.netty.channel.epoll.Epoll", true, classLoader);
+                available = (Boolean) epoll.getMethod("isAvailable").invoke(null);
+                if (available) {
+                    eventLoopGroup = Class.forName("io.netty.channel.epoll.EpollEventLoopGroup", true, classLoader)
+                            .asSubclass(EventLoopGroup.class);
+                    datagramChannel = Class.forName("io.netty.channel.epoll.EpollDatagramChannel", true, classLoader)
+                            .asSubclass(Channel.class);
+                    socketChannel = Class.forName("io.netty.channel.epoll.EpollSocketChannel", true, classLoader)
+                            .asSubclass(Channel.class);
+                    serverSocketChannel = Class.forName("io.netty.channel.epoll.EpollServerSocketChannel", true,
+                            classLoader).asSubclass(ServerChannel.class);
+                    reusePort = (ChannelOption<Boolean>) Class.forName("io.netty.channel.epoll.EpollChannelOption",
+                            true, classLoader).getField("SO_REUSEPORT").get(null);
+                } else {
+                    cause = (Throwable) epoll.getMethod("unavailabilityCause").invoke(null);
+                }
+            } catch (Throwable t) {
+                available = false;
+                cause = t;
+            }
+            AVAILABLE = available;
+            CAUSE = cause;
+        }
+    }
+}
@@ -213,9 +213,7 @@ public class Decoder {
 				if (buf.readableBytes() < Number160.BYTE_ARRAY_SIZE) {
 					return false;
 				}
-				byte[] me = new byte[Number160.BYTE_ARRAY_SIZE];
-				buf.readBytes(me);
-				message.setKey(new Number160(me));
+				message.setKey(new Number160(buf));
 				lastContent = contentTypes.poll();
 				break;
 			case BLOOM_FILTER:
@@ -302,16 +300,7 @@ public class Decoder {
 							+ Number160.BYTE_ARRAY_SIZE + Number160.BYTE_ARRAY_SIZE) {
 						return false;
 					}
-					byte[] me2 = new byte[Number160.BYTE_ARRAY_SIZE];
-					buf.readBytes(me2);
-					Number160 locationKey = new Number160(me2);
-					buf.readBytes(me2);
-					Number160 domainKey = new Number160(me2);
-					buf.readBytes(me2);
-					Number160 contentKey = new Number160(me2);
-					buf.readBytes(me2);
-					Number160 versionKey = new Number160(me2);
-					keyCollection.add(new Number640(locationKey, domainKey, contentKey, versionKey));
+					keyCollection.add(new Number640(buf));
 				}
 				message.setKeyCollection(keyCollection);
 				lastContent = contentTypes.poll();
@@ -344,16 +333,7 @@ public class Decoder {
 								+ Number160.BYTE_ARRAY_SIZE + Number160.BYTE_ARRAY_SIZE) {
 							return false;
 						}
-						byte[] me3 = new byte[Number160.BYTE_ARRAY_SIZE];
-						buf.readBytes(me3);
-						Number160 locationKey = new Number160(me3);
-						buf.readBytes(me3);
-						Number160 domainKey = new Number160(me3);
-						buf.readBytes(me3);
-						Number160 contentKey = new Number160(me3);
-						buf.readBytes(me3);
-						Number160 versionKey = new Number160(me3);
-						key = new Number640(locationKey, domainKey, contentKey, versionKey);
+						key = new Number640(buf);
 					}
 					data = Data.decodeHeader(buf, signatureFactory);
 					if (data == null) {
@@ -397,18 +377,8 @@ public class Decoder {
 							+ Number160.BYTE_ARRAY_SIZE + Number160.BYTE_ARRAY_SIZE + Number160.BYTE_ARRAY_SIZE) {
 						return false;
 					}
-					byte[] me3 = new byte[Number160.BYTE_ARRAY_SIZE];
-					buf.readBytes(me3);
-					Number160 locationKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 domainKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 contentKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 versionKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 valueKey = new Number160(me3);
-					keyMap480.put(new Number640(locationKey, domainKey, contentKey, versionKey), valueKey);
+					final Number640 key640 = new Number640(buf);
+					keyMap480.put(key640, new Number160(buf));
 				}
 
 				message.setKeyMap640(keyMap480);
@@ -432,17 +402,8 @@ public class Decoder {
 							+ Number160.BYTE_ARRAY_SIZE + Number160.BYTE_ARRAY_SIZE + 1) {
 						return false;
 					}
-					byte[] me3 = new byte[Number160.BYTE_ARRAY_SIZE];
-					buf.readBytes(me3);
-					Number160 locationKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 domainKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 contentKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 versionKey = new Number160(me3);
-					byte value = buf.readByte();
-					keyMapByte.put(new Number640(locationKey, domainKey, contentKey, versionKey), value);
+					final Number640 key640 = new Number640(buf);
+					keyMapByte.put(key640, buf.readByte());
 				}
 
 				message.setKeyMapByte(keyMapByte);
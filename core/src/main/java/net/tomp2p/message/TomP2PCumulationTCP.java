@@ -72,8 +72,11 @@ public class TomP2PCumulationTCP extends ChannelInboundHandlerAdapter {
 				// finished the parsing. So this message
 				// is finished as well although it may send only partial data.
 				//TODO testBroadcast
-				//if(decoder.message() != null) {
-				if (lastId == decoder.message().getMessageId()) {
+				if (decoder.message() == null) {
+					// the header of the next message on this connection is
+					// not complete yet, wait for more data
+					break;
+				} else if (lastId == decoder.message().getMessageId()) {
 					finished = true;
 					moreData = cumulation.readableBytes() > 0;
 					ctx.fireChannelRead(decoder.prepareFinish());
@@ -9,6 +9,7 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import net.tomp2p.connection.Reservation.Priority;
 import net.tomp2p.futures.BaseFuture;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureDone;
@@ -56,7 +57,8 @@ public class MaintenanceTask implements Runnable {
                 if(peerStatatistic == null) {
                     continue;
                 }
-                BaseFuture future = peer.ping().setPeerAddress(peerStatatistic.getPeerAddress()).start();
+                BaseFuture future = peer.ping().setPeerAddress(peerStatatistic.getPeerAddress())
+                        .priority(Priority.MAINTENANCE).start();
                 LOG.debug("maintenance ping from {} to {}", peer.getPeerAddress(), peerStatatistic.getPeerAddress());
                 
                 peer.notifyAutomaticFutures(future);
@@ -387,7 +387,10 @@ public class Peer {
             public void operationComplete(final FutureChannelCreator future) throws Exception {
                 if (future.isSuccess()) {
                     final ChannelCreator cc = fcc.getChannelCreator();
-                    final PeerConnection peerConnection = new PeerConnection(destination, cc, heartBeatMillis);
+                    final int maxInFlight = getConnectionBean().sender().channelClientConfiguration()
+                            .maxInFlightPerConnection();
+                    final PeerConnection peerConnection = new PeerConnection(destination, cc, heartBeatMillis,
+                            maxInFlight);
                     futureDone.setDone(peerConnection);
                 } else {
                     futureDone.setFailed(future);
@@ -35,6 +35,7 @@ import net.tomp2p.connection.ChannelServerConficuration;
 import net.tomp2p.connection.ConnectionBean;
 import net.tomp2p.connection.DSASignatureFactory;
 import net.tomp2p.connection.PeerBean;
+import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.connection.PeerCreator;
 import net.tomp2p.connection.PipelineFilter;
 import net.tomp2p.connection.Ports;
@@ -94,6 +95,7 @@ public class PeerMaker {
 	private static final int MAX_PERMITS_PERMANENT_TCP = 250;
 	private static final int MAX_PERMITS_UDP = 250;
 	private static final int MAX_PERMITS_TCP = 250;
+	private static final int MAX_POOLED_TCP_PER_PEER = 2;
 
 	// required
 	private final Number160 peerId;
@@ -418,6 +420,10 @@ public class PeerMaker {
 		channelClientConfiguration.maxPermitsPermanentTCP(MAX_PERMITS_PERMANENT_TCP);
 		channelClientConfiguration.maxPermitsTCP(MAX_PERMITS_TCP);
 		channelClientConfiguration.maxPermitsUDP(MAX_PERMITS_UDP);
+		channelClientConfiguration.maxPooledTCPPerPeer(MAX_POOLED_TCP_PER_PEER);
+		// evict before the other peer closes the connection due to inactivity
+		channelClientConfiguration.pooledTCPIdleMillis(PeerConnection.HEART_BEAT_MILLIS);
+		channelClientConfiguration.maxInFlightPerConnection(PeerConnection.MAX_IN_FLIGHT);
 		channelClientConfiguration.pipelineFilter(new DefaultPipelineFilter());
 		channelClientConfiguration.signatureFactory(new DSASignatureFactory());
 		return channelClientConfiguration;
@@ -27,6 +27,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+import net.tomp2p.connection.Reservation.Priority;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureResponse;
@@ -227,7 +228,7 @@ public class ReplicationExecutor implements ResponsibilityListener, Runnable {
          */
         public void sendDirect(final PeerAddress other, final Number160 locationKey,
                 final Map<Number640, Data> dataMap) {
-            FutureChannelCreator futureChannelCreator = peer.getConnectionBean().reservation().create(0, 1);
+            FutureChannelCreator futureChannelCreator = peer.getConnectionBean().reservation().create(0, 1, Priority.MAINTENANCE);
             futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
                 @Override
                 public void operationComplete(final FutureChannelCreator future) throws Exception {
@@ -16,6 +16,7 @@
 package net.tomp2p.p2p;
 
 import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.connection.Reservation.Priority;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureResponse;
@@ -78,7 +79,7 @@ public class TrackerStorageReplication implements ResponsibilityListener {
 
 	private void peerExchange(final Number160 locationKey, final PeerAddress newPeer) {
 	    for (final Number160 domainKey : trackerStorage.responsibleDomains(locationKey)) {
-            FutureChannelCreator futureChannelCreator = peer.getConnectionBean().reservation().create(1, 0);
+            FutureChannelCreator futureChannelCreator = peer.getConnectionBean().reservation().create(1, 0, Priority.MAINTENANCE);
             futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
                 @Override
                 public void operationComplete(final FutureChannelCreator future) throws Exception {
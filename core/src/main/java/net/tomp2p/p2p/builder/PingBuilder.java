@@ -25,6 +25,7 @@ import net.tomp2p.connection.DefaultConnectionConfiguration;
 import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.connection.Ports;
 import net.tomp2p.connection.RequestHandler;
+import net.tomp2p.connection.Reservation.Priority;
 import net.tomp2p.futures.BaseFuture;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
@@ -55,6 +56,8 @@ public class PingBuilder {
 
     private ConnectionConfiguration connectionConfiguration;
 
+    private Priority priority = Priority.USER;
+
     public PingBuilder(Peer peer) {
         this.peer = peer;
     }
@@ -128,6 +131,20 @@ public class PingBuilder {
         return peerConnection;
     }
 
+    /**
+     * @param priority
+     *            The class of the connection reservation, maintenance pings wait for user requests
+     * @return This class
+     */
+    public PingBuilder priority(Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public Priority priority() {
+        return priority;
+    }
+
     public BaseFuture start() {
         if (peer.isShutdown()) {
             return FUTURE_PING_SHUTDOWN;
@@ -166,7 +183,7 @@ public class PingBuilder {
         final FutureLateJoin<FutureResponse> futureLateJoin = new FutureLateJoin<FutureResponse>(size, 1);
         if (size > 0) {
 
-            FutureChannelCreator fcc = peer.getConnectionBean().reservation().create(size, 0);
+            FutureChannelCreator fcc = peer.getConnectionBean().reservation().create(size, 0, priority);
 
             fcc.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
                 @Override
@@ -231,7 +248,7 @@ public class PingBuilder {
     public FutureResponse ping(PeerAddress peerAddress, final boolean isUDP) {
         final RequestHandler<FutureResponse> request = peer.pingRPC().ping(peerAddress, connectionConfiguration);
         if (isUDP) {
-            FutureChannelCreator fcc = peer.getConnectionBean().reservation().create(1, 0);
+            FutureChannelCreator fcc = peer.getConnectionBean().reservation().create(1, 0, priority);
             fcc.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
                 @Override
                 public void operationComplete(final FutureChannelCreator future) throws Exception {
@@ -244,7 +261,7 @@ public class PingBuilder {
                 }
             });
         } else {
-            FutureChannelCreator fcc = peer.getConnectionBean().reservation().create(0, 1);
+            FutureChannelCreator fcc = peer.getConnectionBean().reservation().create(0, 1, priority);
             fcc.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
                 @Override
                 public void operationComplete(final FutureChannelCreator future) throws Exception {
@@ -15,13 +15,17 @@
  */
 package net.tomp2p.peers;
 
+import io.netty.buffer.ByteBuf;
+
 import java.util.Random;
 
 import net.tomp2p.utils.Utils;
 
 /**
  * This class represents a 160 bit number. This class is preferred over BigInteger as we always have 160bit, and thus,
- * methods can be optimized.
+ * methods can be optimized. The number is stored in primitive fields, an int for the most significant 32 bits and two
+ * longs for the rest. Thus, a number is a single object and comparing, hashing or calculating the xor distance does
+ * not create any garbage.
  * 
  * @author Thomas Bocek
  */
@@ -35,7 +39,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
 
     private static final long LONG_MASK = 0xffffffffL;
 
-    private static final int BYTE_MASK = 0xff;
+    private static final long BYTE_LONG_MASK = 0xffL;
 
     private static final int CHAR_MASK = 0xf;
 
@@ -53,8 +57,14 @@ public final class Number160 extends Number implements Comparable<Number160> {
 
     public static final int CHARS_PER_INT = 8;
 
-    // backing integer array
-    private final int[] val;
+    // bits 159..128
+    private final int msb;
+
+    // bits 127..64
+    private final long mid;
+
+    // bits 63..0
+    private final long lsb;
 
     // constants
     public static final Number160 ZERO = new Number160(0);
@@ -65,7 +75,25 @@ public final class Number160 extends Number implements Comparable<Number160> {
      * Create a Key with value 0.
      */
     public Number160() {
-        this.val = new int[INT_ARRAY_SIZE];
+        this(0, 0L, 0L, true);
+    }
+
+    /**
+     * Creates a number from its primitive parts.
+     * 
+     * @param msb
+     *            The most significant 32 bits
+     * @param mid
+     *            The middle 64 bits
+     * @param lsb
+     *            The least significant 64 bits
+     * @param unused
+     *            Only used to distinguish this constructor from {@link #Number160(int...)}
+     */
+    private Number160(final int msb, final long mid, final long lsb, final boolean unused) {
+        this.msb = msb;
+        this.mid = mid;
+        this.lsb = lsb;
     }
 
     /**
@@ -80,11 +108,10 @@ public final class Number160 extends Number implements Comparable<Number160> {
             throw new IllegalArgumentException("Can only deal with arrays of smaller or equal "
                     + INT_ARRAY_SIZE + ". Your array has " + val.length);
         }
-        this.val = new int[INT_ARRAY_SIZE];
         final int len = val.length;
-        for (int i = len - 1, j = INT_ARRAY_SIZE - 1; i >= 0; i--, j--) {
-            this.val[j] = val[i];
-        }
+        this.msb = len > 4 ? val[len - 5] : 0;
+        this.mid = pack(len > 3 ? val[len - 4] : 0, len > 2 ? val[len - 3] : 0);
+        this.lsb = pack(len > 1 ? val[len - 2] : 0, len > 0 ? val[len - 1] : 0);
     }
 
     /**
@@ -95,6 +122,10 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            The characters allowed are [0-9a-f], which is in hexadecimal
      */
     public Number160(final String val) {
+        this(parse(val));
+    }
+
+    private static int[] parse(final String val) {
         if (val.length() > STRING_LENGTH) {
             throw new IllegalArgumentException(
                     "Can only deal with strings of size smaller or equal than 42. Your string has "
@@ -104,12 +135,12 @@ public final class Number160 extends Number implements Comparable<Number160> {
             throw new IllegalArgumentException(val
                     + " is not in hexadecimal form. Decimal form is not supported yet");
         }
-        this.val = new int[INT_ARRAY_SIZE];
+        final int[] result = new int[INT_ARRAY_SIZE];
         final char[] tmp = val.toCharArray();
         final int len = tmp.length;
         for (int i = STRING_LENGTH - len, j = 2; i < (STRING_LENGTH - 2); i++, j++) {
             // CHECKSTYLE:OFF
-            this.val[i >> 3] <<= 4;
+            result[i >> 3] <<= 4;
 
             int digit = Character.digit(tmp[j], 16);
             if (digit < 0) {
@@ -117,9 +148,10 @@ public final class Number160 extends Number implements Comparable<Number160> {
                         + "\". The range is [0-9a-f]");
             }
             // += or |= does not matter here
-            this.val[i >> 3] += digit & CHAR_MASK;
+            result[i >> 3] += digit & CHAR_MASK;
             // CHECKSTYLE:ON
         }
+        return result;
     }
 
     /**
@@ -129,8 +161,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            integer value
      */
     public Number160(final int val) {
-        this.val = new int[INT_ARRAY_SIZE];
-        this.val[INT_ARRAY_SIZE - 1] = val;
+        this(0, 0L, val & LONG_MASK, true);
     }
 
     /**
@@ -140,9 +171,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            long value
      */
     public Number160(final long val) {
-        this.val = new int[INT_ARRAY_SIZE];
-        this.val[INT_ARRAY_SIZE - 1] = (int) val;
-        this.val[INT_ARRAY_SIZE - 2] = (int) (val >> Integer.SIZE);
+        this(0, 0L, val, true);
     }
 
     /**
@@ -156,7 +185,8 @@ public final class Number160 extends Number implements Comparable<Number160> {
     }
 
     /**
-     * Creates a new Key using the byte array. The array is copied to the backing int[] starting at the given offest.
+     * Creates a new Key using the byte array. The bytes are read in big-endian order starting at the given offest. If
+     * less than 20 bytes are given, the most significant bits are zero.
      * 
      * @param val
      *            byte array
@@ -171,13 +201,20 @@ public final class Number160 extends Number implements Comparable<Number160> {
                     "Can only deal with byte arrays of size smaller or equal than 20. Your array has "
                             + length);
         }
-        this.val = new int[INT_ARRAY_SIZE];
-        for (int i = length + offset - 1, j = BYTE_ARRAY_SIZE - 1, k = 0; i >= offset; i--, j--, k++) {
-            // += or |= does not matter here
-            // CHECKSTYLE:OFF
-            this.val[j >> 2] |= (val[i] & BYTE_MASK) << ((k % 4) << 3);
-            // CHECKSTYLE:ON
-        }
+        final int end = offset + length;
+        this.msb = (int) toLong(val, offset, end - Long.SIZE / Byte.SIZE * 2, Integer.SIZE / Byte.SIZE);
+        this.mid = toLong(val, offset, end - Long.SIZE / Byte.SIZE, Long.SIZE / Byte.SIZE);
+        this.lsb = toLong(val, offset, end, Long.SIZE / Byte.SIZE);
+    }
+
+    /**
+     * Creates a new Key from the next 20 bytes of the buffer. The reader index of the buffer is increased by 20.
+     * 
+     * @param buf
+     *            The buffer to read from
+     */
+    public Number160(final ByteBuf buf) {
+        this(buf.readInt(), buf.readLong(), buf.readLong(), true);
     }
 
     /**
@@ -188,10 +225,9 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            can be set to make the random values repeatable.
      */
     public Number160(final Random random) {
-        this.val = new int[INT_ARRAY_SIZE];
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            this.val[i] = random.nextInt();
-        }
+        // the order of the calls defines the value, keep it for repeatable random numbers
+        this(random.nextInt(), pack(random.nextInt(), random.nextInt()), pack(random.nextInt(), random.nextInt()),
+                true);
     }
 
     /**
@@ -203,26 +239,22 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            The rest will be filled with this number
      */
     public Number160(final long timestamp, Number160 number96) {
-        this.val = new int[INT_ARRAY_SIZE];
-        this.val[0] = (int) timestamp;
-        this.val[1] = (int) (timestamp >> Integer.SIZE);
-        this.val[2] = number96.val[2];
-        this.val[3] = number96.val[3];
-        this.val[4] = number96.val[4];
+        this((int) timestamp, ((timestamp >> Integer.SIZE) << Integer.SIZE) | (number96.mid & LONG_MASK),
+                number96.lsb, true);
     }
 
     /**
      * @return The first (most significant 64bits)
      */
     public long timestamp() {
-        return ((this.val[0] & LONG_MASK) << Integer.SIZE) + (this.val[2] & LONG_MASK);
+        return ((msb & LONG_MASK) << Integer.SIZE) + (mid & LONG_MASK);
     }
     
     /**
      * @return The lower 96 bits of the 160 bit number
      */
     public Number160 number96() {
-        return new Number160(0, 0, this.val[2], this.val[3], this.val[4]);
+        return new Number160(0, mid & LONG_MASK, lsb, true);
     }
 
     /**
@@ -233,11 +265,34 @@ public final class Number160 extends Number implements Comparable<Number160> {
      * @return A new key with the resurt of the xor operation
      */
     public Number160 xor(final Number160 key) {
-        final int[] result = new int[INT_ARRAY_SIZE];
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            result[i] = this.val[i] ^ key.val[i];
-        }
-        return new Number160(result);
+        return new Number160(msb ^ key.msb, mid ^ key.mid, lsb ^ key.lsb, true);
+    }
+
+    /**
+     * Calculates the bit length of the xor of this and the given key without creating the intermediate result. This
+     * is the same as <code>xor(key).bitLength()</code>.
+     * 
+     * @param key
+     *            The second operand for the xor operation
+     * @return The bits used by the xor distance
+     */
+    public int xorBitLength(final Number160 key) {
+        return bitLength(msb ^ key.msb, mid ^ key.mid, lsb ^ key.lsb);
+    }
+
+    /**
+     * Compares the xor distances of two keys to this key without creating the intermediate results. This is the same
+     * as <code>xor(key1).compareTo(xor(key2))</code>.
+     * 
+     * @param key1
+     *            The first key
+     * @param key2
+     *            The second key
+     * @return -1 if key1 is closer to this key, 1 if key2 is closer, and 0 if both have the same distance
+     */
+    public int compareXor(final Number160 key1, final Number160 key2) {
+        return compare(msb ^ key1.msb, mid ^ key1.mid, lsb ^ key1.lsb, msb ^ key2.msb, mid ^ key2.mid, lsb
+                ^ key2.lsb);
     }
 
     /**
@@ -246,11 +301,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
      * @return a copy of the backing array
      */
     public int[] toIntArray() {
-        final int[] retVal = new int[INT_ARRAY_SIZE];
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            retVal[i] = this.val[i];
-        }
-        return retVal;
+        return new int[] { msb, (int) (mid >>> Integer.SIZE), (int) mid, (int) (lsb >>> Integer.SIZE), (int) lsb };
     }
 
     /**
@@ -269,11 +320,12 @@ public final class Number160 extends Number implements Comparable<Number160> {
         for (int i = 0; i < INT_ARRAY_SIZE; i++) {
             // multiply by four
             final int idx = offset + (i << 2);
+            final int val = intAt(i);
             // CHECKSTYLE:OFF
-            me[idx + 0] = (byte) (val[i] >> 24);
-            me[idx + 1] = (byte) (val[i] >> 16);
-            me[idx + 2] = (byte) (val[i] >> 8);
-            me[idx + 3] = (byte) (val[i]);
+            me[idx + 0] = (byte) (val >> 24);
+            me[idx + 1] = (byte) (val >> 16);
+            me[idx + 2] = (byte) (val >> 8);
+            me[idx + 3] = (byte) (val);
             // CHECKSTYLE:ON
         }
         return offset + BYTE_ARRAY_SIZE;
@@ -301,8 +353,9 @@ public final class Number160 extends Number implements Comparable<Number160> {
         boolean removeZero = removeLeadingZero;
         final StringBuilder sb = new StringBuilder("0x");
         for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            toHex(val[i], removeZero, sb);
-            if (removeZero && val[i] != 0) {
+            final int val = intAt(i);
+            toHex(val, removeZero, sb);
+            if (removeZero && val != 0) {
                 removeZero = false;
             }
         }
@@ -315,12 +368,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
      * @return True if this number is zero, false otherwise
      */
     public boolean isZero() {
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            if (this.val[i] != 0) {
-                return false;
-            }
-        }
-        return true;
+        return msb == 0 && mid == 0 && lsb == 0;
     }
 
     /**
@@ -329,15 +377,17 @@ public final class Number160 extends Number implements Comparable<Number160> {
      * @return The bits used
      */
     public int bitLength() {
-        int bits = 0;
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            if (this.val[i] != 0) {
-                bits += Integer.SIZE - Integer.numberOfLeadingZeros(this.val[i]);
-                bits += Integer.SIZE * (INT_ARRAY_SIZE - ++i);
-                break;
-            }
+        return bitLength(msb, mid, lsb);
+    }
+
+    private static int bitLength(final int msb, final long mid, final long lsb) {
+        if (msb != 0) {
+            return BITS - Integer.numberOfLeadingZeros(msb);
+        } else if (mid != 0) {
+            return Long.SIZE * 2 - Long.numberOfLeadingZeros(mid);
+        } else {
+            return Long.SIZE - Long.numberOfLeadingZeros(lsb);
         }
-        return bits;
     }
 
     @Override
@@ -350,7 +400,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
         double d = 0;
         for (int i = 0; i < INT_ARRAY_SIZE; i++) {
             d *= LONG_MASK + 1;
-            d += this.val[i] & LONG_MASK;
+            d += intAt(i) & LONG_MASK;
         }
         return d;
     }
@@ -362,7 +412,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
 
     @Override
     public int intValue() {
-        return this.val[INT_ARRAY_SIZE - 1];
+        return (int) lsb;
     }
 
     /**
@@ -373,27 +423,52 @@ public final class Number160 extends Number implements Comparable<Number160> {
      * @return the long of the unsigned int
      */
     long unsignedInt(final int pos) {
-        return this.val[pos] & LONG_MASK;
+        return intAt(pos) & LONG_MASK;
+    }
+
+    private int intAt(final int pos) {
+        switch (pos) {
+        case 0:
+            return msb;
+        case 1:
+            return (int) (mid >>> Integer.SIZE);
+        case 2:
+            return (int) mid;
+        case 3:
+            return (int) (lsb >>> Integer.SIZE);
+        case 4:
+            return (int) lsb;
+        default:
+            throw new ArrayIndexOutOfBoundsException(pos);
+        }
     }
 
     @Override
     public long longValue() {
-        return ((this.val[INT_ARRAY_SIZE - 1] & LONG_MASK) << Integer.SIZE)
-                + (this.val[INT_ARRAY_SIZE - 2] & LONG_MASK);
+        return (lsb << Integer.SIZE) + (lsb >>> Integer.SIZE);
     }
 
     @Override
     public int compareTo(final Number160 o) {
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            long b1 = val[i] & LONG_MASK;
-            long b2 = o.val[i] & LONG_MASK;
-            if (b1 < b2) {
-                return -1;
-            } else if (b1 > b2) {
-                return 1;
-            }
+        return compare(msb, mid, lsb, o.msb, o.mid, o.lsb);
+    }
+
+    private static int compare(final int msb1, final long mid1, final long lsb1, final int msb2, final long mid2,
+            final long lsb2) {
+        if (msb1 != msb2) {
+            return compareUnsigned(msb1 & LONG_MASK, msb2 & LONG_MASK);
+        } else if (mid1 != mid2) {
+            return compareUnsigned(mid1, mid2);
+        } else {
+            return compareUnsigned(lsb1, lsb2);
         }
-        return 0;
+    }
+
+    private static int compareUnsigned(final long x, final long y) {
+        // flipping the sign bit maps the unsigned order to the signed order
+        final long x1 = x + Long.MIN_VALUE;
+        final long y1 = y + Long.MIN_VALUE;
+        return x1 < y1 ? -1 : (x1 == y1 ? 0 : 1);
     }
 
     @Override
@@ -405,23 +480,36 @@ public final class Number160 extends Number implements Comparable<Number160> {
             return true;
         }
         final Number160 key = (Number160) obj;
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            if (key.val[i] != val[i]) {
-                return false;
-            }
-        }
-        return true;
+        return key.msb == msb && key.mid == mid && key.lsb == lsb;
     }
 
     @Override
     public int hashCode() {
-        int hashCode = 0;
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
+        // same as 31 * h + v over the five 32bit parts, without the loop
+        // CHECKSTYLE:OFF
+        int hashCode = msb;
+        hashCode = 31 * hashCode + (int) (mid >>> Integer.SIZE);
+        hashCode = 31 * hashCode + (int) mid;
+        hashCode = 31 * hashCode + (int) (lsb >>> Integer.SIZE);
+        return 31 * hashCode + (int) lsb;
+        // CHECKSTYLE:ON
+    }
+
+    private static long pack(final int high, final int low) {
+        return ((long) high << Integer.SIZE) | (low & LONG_MASK);
+    }
+
+    /**
+     * Reads up to count bytes in big-endian order that end right before the given end, but not before the offset.
+     */
+    private static long toLong(final byte[] val, final int offset, final int end, final int count) {
+        long result = 0;
+        for (int i = Math.max(offset, end - count); i < end; i++) {
             // CHECKSTYLE:OFF
-            hashCode = (int) (31 * hashCode + (val[i] & LONG_MASK));
+            result = (result << Byte.SIZE) | (val[i] & BYTE_LONG_MASK);
             // CHECKSTYLE:ON
         }
-        return hashCode;
+        return result;
     }
 
     /**
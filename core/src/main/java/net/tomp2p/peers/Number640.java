@@ -16,6 +16,8 @@
 
 package net.tomp2p.peers;
 
+import io.netty.buffer.ByteBuf;
+
 import java.util.Random;
 
 /**
@@ -89,6 +91,16 @@ public final class Number640 extends Number implements Comparable<Number640> {
         this(new Number160(rnd), new Number160(rnd), new Number160(rnd), new Number160(rnd));
     }
 
+    /**
+     * Constructor that reads the location, domain, content, and version key from the next 80 bytes of the buffer.
+     * 
+     * @param buf
+     *            The buffer to read from
+     */
+    public Number640(final ByteBuf buf) {
+        this(new Number160(buf), new Number160(buf), new Number160(buf), new Number160(buf));
+    }
+
     /**
      * @return The location key
      */
@@ -132,7 +144,7 @@ public final class Number640 extends Number implements Comparable<Number640> {
         }
         Number640 cmp = (Number640) obj;
         return locationKey.equals(cmp.locationKey) && domainKey.equals(cmp.domainKey)
-                && contentKey.equals(cmp.contentKey);
+                && contentKey.equals(cmp.contentKey) && versionKey.equals(cmp.versionKey);
     }
 
     @Override
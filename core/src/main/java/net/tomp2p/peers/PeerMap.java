@@ -635,7 +635,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @return -1 if key1 is closer to key, otherwise 1. 0 is returned if both are equal.
      */
     public static int isCloser(final Number160 id, final Number160 rn, final Number160 rn2) {
-        return distance(id, rn).compareTo(distance(id, rn2));
+        return id.compareXor(rn, rn2);
     }
 
     /**
@@ -662,7 +662,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @return -1 if first peer is closer, 1 otherwise, 0 if both are equal
      */
     public static int isKadCloser(final Number160 id, final PeerAddress rn, final PeerAddress rn2) {
-        return distance(id, rn.getPeerId()).compareTo(distance(id, rn2.getPeerId()));
+        return id.compareXor(rn.getPeerId(), rn2.getPeerId());
     }
 
     /**
@@ -691,7 +691,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @return returns the bit difference and -1 if they are equal
      */
     static int classMember(final Number160 id1, final Number160 id2) {
-        return distance(id1, id2).bitLength() - 1;
+        return id1.xorBitLength(id2) - 1;
     }
 
     /**
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.tomp2p.peers.Number640;
+
+/**
+ * A multiple granularity lock over the key hierarchy storage &rarr; location &rarr; domain &rarr; content &rarr;
+ * version. A range is locked on the deepest level that covers the whole range, all levels above are locked with an
+ * intention lock. Thus, a range read on a location conflicts with a put on any key in this location, while operations
+ * on disjoint keys or ranges proceed in parallel and readers do not block each other.
+ * <p>
+ * Locks are always acquired top-down. An operation must not acquire a second lock that is covered by a lock it already
+ * holds, as the locks are not reentrant.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class HierarchicalKeyLock {
+
+    public enum Mode {
+        INTENTION_SHARED, INTENTION_EXCLUSIVE, SHARED, EXCLUSIVE
+    };
+
+    // [requested][granted]
+    private static final boolean[][] COMPATIBLE = new boolean[][] {
+            // IS, IX, S, X
+            { true, true, true, false }, // IS
+            { true, true, false, false }, // IX
+            { true, false, true, false }, // S
+            { false, false, false, false } // X
+    };
+
+    // storage, location, domain, content, version
+    private static final int LEVELS = 5;
+
+    private static final Object ROOT = new Object();
+
+    private final List<ConcurrentMap<Object, Node>> levels = new ArrayList<ConcurrentMap<Object, Node>>(LEVELS);
+
+    public HierarchicalKeyLock() {
+        for (int i = 0; i < LEVELS; i++) {
+            levels.add(new ConcurrentHashMap<Object, Node>());
+        }
+    }
+
+    /**
+     * A lock that has been granted and has to be released with {@link #unlock()}.
+     */
+    public final class Lock {
+        private final Node[] nodes;
+        private final Mode[] modes;
+        private boolean released = false;
+
+        private Lock(final Node[] nodes, final Mode[] modes) {
+            this.nodes = nodes;
+            this.modes = modes;
+        }
+
+        public void unlock() {
+            if (released) {
+                return;
+            }
+            released = true;
+            // release bottom-up
+            for (int i = nodes.length - 1; i >= 0; i--) {
+                nodes[i].unlock(modes[i]);
+                release(nodes[i]);
+            }
+        }
+
+        /**
+         * @return The level where the shared or exclusive lock is held, 0 for the whole storage and 4 for a single key
+         */
+        public int level() {
+            return nodes.length - 1;
+        }
+    }
+
+    private final class Node {
+        private final int level;
+        private final Object key;
+        // 0 means that this node is about to be removed and cannot be used anymore
+        private final AtomicInteger references = new AtomicInteger(1);
+        // guarded by this
+        private final int[] granted = new int[Mode.values().length];
+
+        private Node(final int level, final Object key) {
+            this.level = level;
+            this.key = key;
+        }
+
+        private boolean reference() {
+            for (;;) {
+                final int current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private synchronized void lock(final Mode mode) {
+            boolean interrupted = false;
+            while (!isCompatible(mode)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            granted[mode.ordinal()]++;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized void unlock(final Mode mode) {
+            granted[mode.ordinal()]--;
+            notifyAll();
+        }
+
+        private boolean isCompatible(final Mode mode) {
+            final boolean[] compatible = COMPATIBLE[mode.ordinal()];
+            for (int i = 0; i < granted.length; i++) {
+                if (granted[i] > 0 && !compatible[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Locks the whole storage for reading.
+     */
+    public Lock readLock() {
+        return lock(null, 0, false);
+    }
+
+    /**
+     * Locks the whole storage for writing.
+     */
+    public Lock writeLock() {
+        return lock(null, 0, true);
+    }
+
+    public Lock readLock(final Number640 key) {
+        return lock(key, LEVELS - 1, false);
+    }
+
+    public Lock writeLock(final Number640 key) {
+        return lock(key, LEVELS - 1, true);
+    }
+
+    /**
+     * Locks the smallest part of the hierarchy that covers the range for reading.
+     */
+    public Lock readLock(final Number640 from, final Number640 to) {
+        return lock(from, depth(from, to), false);
+    }
+
+    /**
+     * Locks the smallest part of the hierarchy that covers the range for writing.
+     */
+    public Lock writeLock(final Number640 from, final Number640 to) {
+        return lock(from, depth(from, to), true);
+    }
+
+    /**
+     * @return The number of nodes in the lock hierarchy that are in use
+     */
+    public int cacheSize() {
+        int size = 0;
+        for (ConcurrentMap<Object, Node> level : levels) {
+            size += level.size();
+        }
+        return size;
+    }
+
+    private static int depth(final Number640 from, final Number640 to) {
+        if (!from.getLocationKey().equals(to.getLocationKey())) {
+            return 0;
+        } else if (!from.getDomainKey().equals(to.getDomainKey())) {
+            return 1;
+        } else if (!from.getContentKey().equals(to.getContentKey())) {
+            return 2;
+        } else if (!from.getVersionKey().equals(to.getVersionKey())) {
+            return 3;
+        } else {
+            return 4;
+        }
+    }
+
+    private static Object key(final Number640 key, final int level) {
+        switch (level) {
+        case 0:
+            return ROOT;
+        case 1:
+            return key.getLocationKey();
+        case 2:
+            return key.locationAndDomainKey();
+        case 3:
+            return key.locationDomainAndContentKey();
+        default:
+            return key;
+        }
+    }
+
+    private Lock lock(final Number640 key, final int depth, final boolean write) {
+        final Node[] nodes = new Node[depth + 1];
+        final Mode[] modes = new Mode[depth + 1];
+        for (int level = 0; level <= depth; level++) {
+            if (level < depth) {
+                modes[level] = write ? Mode.INTENTION_EXCLUSIVE : Mode.INTENTION_SHARED;
+            } else {
+                modes[level] = write ? Mode.EXCLUSIVE : Mode.SHARED;
+            }
+            nodes[level] = acquire(level, key(key, level));
+            nodes[level].lock(modes[level]);
+        }
+        return new Lock(nodes, modes);
+    }
+
+    private Node acquire(final int level, final Object key) {
+        final ConcurrentMap<Object, Node> nodes = levels.get(level);
+        Node cur = nodes.get(key);
+        for (;;) {
+            if (cur == null) {
+                final Node newNode = new Node(level, key);
+                cur = nodes.putIfAbsent(key, newNode);
+                if (cur == null) {
+                    return newNode;
+                }
+            }
+            if (cur.reference()) {
+                return cur;
+            }
+            // the last reference is gone, help to remove it and try again
+            nodes.remove(key, cur);
+            cur = nodes.get(key);
+        }
+    }
+
+    private void release(final Node node) {
+        if (node.references.decrementAndGet() == 0) {
+            levels.get(node.level).remove(node.key, node);
+        }
+    }
+}
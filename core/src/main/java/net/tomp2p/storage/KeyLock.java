@@ -1,12 +1,12 @@
 /*
  * Copyright 2012 Thomas Bocek
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
  * the License at
- * 
+ *
  * http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
@@ -16,46 +16,69 @@
 
 package net.tomp2p.storage;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
-//as seen in http://stackoverflow.com/questions/5639870/simple-java-name-based-locks
+/**
+ * A lock per key. The locks are kept in a concurrent map with a reference counter, which is modified with CAS
+ * operations. Thus, looking up the lock for a key does not need a global lock and operations on different keys do not
+ * block each other. A lock is removed from the map as soon as the last reference is gone.
+ *
+ * @param <K>
+ *            The type of the key
+ */
 public class KeyLock<K> {
     public class RefCounterLock {
         final private K key;
         final public ReentrantLock sem = new ReentrantLock();
         final private KeyLock<K> keyLock;
-        
-        private int counter = 0;
-        
+
+        // 0 means that this lock is about to be removed and cannot be used anymore
+        final private AtomicInteger counter = new AtomicInteger(1);
+
         public RefCounterLock(K key, KeyLock<K> keyLock) {
             this.key = key;
             this.keyLock = keyLock;
         }
-        
+
         public void unlock() {
             keyLock.unlock(this);
         }
-    }
 
-    private final ReentrantLock lockInternal = new ReentrantLock();
+        private boolean reference() {
+            for (;;) {
+                final int current = counter.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (counter.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
 
-    // TODO: think about doing this with a weak hashmap, maybe counter will not be necessary.
-    private final HashMap<K, RefCounterLock> cache = new HashMap<K, RefCounterLock>();
+    private final ConcurrentMap<K, RefCounterLock> cache = new ConcurrentHashMap<K, RefCounterLock>();
 
     public RefCounterLock lock(final K key) {
-        final RefCounterLock cur;
-        lockInternal.lock();
-        try {
-            if (!cache.containsKey(key)) {
-                cur = new RefCounterLock(key, this);
-                cache.put(key, cur);
-            } else {
-                cur = cache.get(key);
+        RefCounterLock cur = cache.get(key);
+        for (;;) {
+            if (cur == null) {
+                final RefCounterLock newLock = new RefCounterLock(key, this);
+                cur = cache.putIfAbsent(key, newLock);
+                if (cur == null) {
+                    cur = newLock;
+                    break;
+                }
+            }
+            if (cur.reference()) {
+                break;
             }
-            cur.counter++;
-        } finally {
-            lockInternal.unlock();
+            // the last reference is gone, help to remove it and try again
+            cache.remove(key, cur);
+            cur = cache.get(key);
         }
         cur.sem.lock();
         return cur;
@@ -67,31 +90,20 @@ public class KeyLock<K> {
      *            With this argument we make sure that lock has been called previously
      */
     public void unlock(KeyLock<?>.RefCounterLock lock) {
-        RefCounterLock cur = null;
-        lockInternal.lock();
-        try {
-            if (cache.containsKey(lock.key)) {
-                cur = cache.get(lock.key);
-                if (lock != cur) {
-                    throw new IllegalArgumentException("lock does not matches the stored lock");
-                }
-                cur.counter--;
-                cur.sem.unlock();
-                if (cur.counter == 0) { // last reference
-                    cache.remove(lock.key);
-                }
-            }
-        } finally {
-            lockInternal.unlock();
+        RefCounterLock cur = cache.get(lock.key);
+        if (cur == null) {
+            return;
+        }
+        if (lock != cur) {
+            throw new IllegalArgumentException("lock does not matches the stored lock");
+        }
+        cur.sem.unlock();
+        if (cur.counter.decrementAndGet() == 0) { // last reference
+            cache.remove(lock.key, cur);
         }
     }
 
     public int cacheSize() {
-        lockInternal.lock();
-        try {
-            return cache.size();
-        } finally {
-            lockInternal.unlock();
-        }
+        return cache.size();
     }
-}
\ No newline at end of file
+}
@@ -72,15 +72,7 @@ public class StorageLayer {
 	// anyone
 	final private Collection<Number160> removedDomains = new HashSet<Number160>();
 
-	final private KeyLock<Storage> dataLock = new KeyLock<Storage>();
-
-	final private KeyLock<Number160> dataLock160 = new KeyLock<Number160>();
-
-	final private KeyLock<Number320> dataLock320 = new KeyLock<Number320>();
-
-	final private KeyLock<Number480> dataLock480 = new KeyLock<Number480>();
-
-	final private KeyLock<Number640> dataLock640 = new KeyLock<Number640>();
+	final private HierarchicalKeyLock dataLock = new HierarchicalKeyLock();
 
 	final private Storage backend;
 
@@ -139,7 +131,7 @@ public class StorageLayer {
 	public Enum<?> put(final Number640 key, Data newData, PublicKey publicKey, boolean putIfAbsent,
 	        boolean domainProtection) {
 		boolean retVal = false;
-		KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+		HierarchicalKeyLock.Lock lock = dataLock.writeLock(key);
 		try {
 			if (!securityDomainCheck(key.locationAndDomainKey(), publicKey, publicKey, domainProtection)) {
 				return PutStatus.FAILED_SECURITY;
@@ -160,37 +152,41 @@ public class StorageLayer {
 				backend.addTimeout(key, expiration);
 			}
 		} finally {
-			dataLock640.unlock(lock);
+			lock.unlock();
 		}
 		return retVal ? PutStatus.OK : PutStatus.FAILED;
 	}
 
 	public Pair<Data, Enum<?>> remove(Number640 key, PublicKey publicKey, boolean returnData) {
-		KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+		HierarchicalKeyLock.Lock lock = dataLock.writeLock(key);
 		try {
-			if (!canClaimDomain(key.locationAndDomainKey(), publicKey)) {
-				return new Pair<Data, Enum<?>>(null, PutStatus.FAILED_SECURITY);
-			}
-			if (!canClaimEntry(key.locationDomainAndContentKey(), publicKey)) {
-				return new Pair<Data, Enum<?>>(null, PutStatus.FAILED_SECURITY);
-			}
-			if (!backend.contains(key)) {
-				return new Pair<Data, Enum<?>>(null, PutStatus.NOT_FOUND);
-			}
-			backend.removeTimeout(key);
-			backend.removeResponsibility(key.getLocationKey());
-			return new Pair<Data, Enum<?>>(backend.remove(key, returnData), PutStatus.OK);
+			return removeInternal(key, publicKey, returnData);
 		} finally {
-			dataLock640.unlock(lock);
+			lock.unlock();
+		}
+	}
+
+	private Pair<Data, Enum<?>> removeInternal(Number640 key, PublicKey publicKey, boolean returnData) {
+		if (!canClaimDomain(key.locationAndDomainKey(), publicKey)) {
+			return new Pair<Data, Enum<?>>(null, PutStatus.FAILED_SECURITY);
+		}
+		if (!canClaimEntry(key.locationDomainAndContentKey(), publicKey)) {
+			return new Pair<Data, Enum<?>>(null, PutStatus.FAILED_SECURITY);
+		}
+		if (!backend.contains(key)) {
+			return new Pair<Data, Enum<?>>(null, PutStatus.NOT_FOUND);
 		}
+		backend.removeTimeout(key);
+		backend.removeResponsibility(key.getLocationKey());
+		return new Pair<Data, Enum<?>>(backend.remove(key, returnData), PutStatus.OK);
 	}
 
 	public Data get(Number640 key) {
-		KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+		HierarchicalKeyLock.Lock lock = dataLock.readLock(key);
 		try {
 			return getInternal(key);
 		} finally {
-			dataLock640.unlock(lock);
+			lock.unlock();
 		}
 	}
 
@@ -199,7 +195,7 @@ public class StorageLayer {
 	}
 
 	public NavigableMap<Number640, Data> get(Number640 from, Number640 to, int limit, boolean ascending) {
-		KeyLock<?>.RefCounterLock lock = findAndLock(from, to);
+		HierarchicalKeyLock.Lock lock = dataLock.readLock(from, to);
 		try {
 			return backend.subMap(from, to, limit, ascending);
 		} finally {
@@ -208,7 +204,7 @@ public class StorageLayer {
 	}
 
 	public NavigableMap<Number640, Data> get() {
-		KeyLock<Storage>.RefCounterLock lock = dataLock.lock(backend);
+		HierarchicalKeyLock.Lock lock = dataLock.readLock();
 		try {
 			return backend.map();
 		} finally {
@@ -217,17 +213,17 @@ public class StorageLayer {
 	}
 
 	public boolean contains(Number640 key) {
-		KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+		HierarchicalKeyLock.Lock lock = dataLock.readLock(key);
 		try {
 			return backend.contains(key);
 		} finally {
-			dataLock640.unlock(lock);
+			lock.unlock();
 		}
 	}
 
 	public Map<Number640, Data> get(Number640 from, Number640 to, SimpleBloomFilter<Number160> contentBloomFilter,
 	        SimpleBloomFilter<Number160> versionBloomFilter, int limit, boolean ascending, boolean isBloomFilterAnd) {
-		KeyLock<?>.RefCounterLock lock = findAndLock(from, to);
+		HierarchicalKeyLock.Lock lock = dataLock.readLock(from, to);
 		try {
 			NavigableMap<Number640, Data> tmp = backend.subMap(from, to, limit, ascending);
 			Iterator<Map.Entry<Number640, Data>> iterator = tmp.entrySet().iterator();
@@ -259,31 +255,8 @@ public class StorageLayer {
 		}
 	}
 
-	private KeyLock<?>.RefCounterLock findAndLock(Number640 from, Number640 to) {
-		if (!from.getLocationKey().equals(to.getLocationKey())) {
-			// everything is different, return a 640 lock
-			KeyLock<Storage>.RefCounterLock lock = dataLock.lock(backend);
-			return lock;
-		} else if (!from.getDomainKey().equals(to.getDomainKey())) {
-			// location key is the same, rest is different
-			KeyLock<Number160>.RefCounterLock lock = dataLock160.lock(from.getLocationKey());
-			return lock;
-		} else if (!from.getContentKey().equals(to.getContentKey())) {
-			// location and domain key are same, rest is different
-			KeyLock<Number320>.RefCounterLock lock = dataLock320.lock(from.locationAndDomainKey());
-			return lock;
-		} else if (!from.getVersionKey().equals(to.getVersionKey())) {
-			// location, domain, and content key are the same, rest is different
-			KeyLock<Number480>.RefCounterLock lock = dataLock480.lock(from.locationDomainAndContentKey());
-			return lock;
-		} else {
-			KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(from);
-			return lock;
-		}
-	}
-
 	public SortedMap<Number640, Data> removeReturnData(Number640 from, Number640 to, PublicKey publicKey) {
-		KeyLock<?>.RefCounterLock lock = findAndLock(from, to);
+		HierarchicalKeyLock.Lock lock = dataLock.writeLock(from, to);
 		try {
 			Map<Number640, Data> tmp = backend.subMap(from, to, -1, true);
 
@@ -312,12 +285,13 @@ public class StorageLayer {
 	}
 
 	public SortedMap<Number640, Byte> removeReturnStatus(Number640 from, Number640 to, PublicKey publicKey) {
-		KeyLock<?>.RefCounterLock lock = findAndLock(from, to);
+		HierarchicalKeyLock.Lock lock = dataLock.writeLock(from, to);
 		try {
 			Map<Number640, Data> tmp = backend.subMap(from, to, -1, true);
 			SortedMap<Number640, Byte> result = new TreeMap<Number640, Byte>();
 			for (Number640 key : tmp.keySet()) {
-				Pair<Data, Enum<?>> pair = remove(key, publicKey, false);
+				// the range is already locked exclusively
+				Pair<Data, Enum<?>> pair = removeInternal(key, publicKey, false);
 				result.put(key, (byte) pair.element1().ordinal());
 			}
 			return result;
@@ -331,7 +305,7 @@ public class StorageLayer {
 		Collection<Number640> toRemove = backend.subMapTimeout(time);
 		if (toRemove.size() > 0) {
 			for (Number640 key : toRemove) {
-				KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+				HierarchicalKeyLock.Lock lock = dataLock.writeLock(key);
 				try {
 					backend.remove(key, false);
 					backend.removeTimeout(key);
@@ -341,9 +315,11 @@ public class StorageLayer {
 				// remove responsibility if we don't have any data stored under
 				// locationkey
 				Number160 locationKey = key.getLocationKey();
-				KeyLock<Number160>.RefCounterLock lock1 = dataLock160.lock(locationKey);
+				Number640 from = new Number640(locationKey, Number160.ZERO, Number160.ZERO, Number160.ZERO);
+				Number640 to = new Number640(locationKey, Number160.MAX_VALUE, Number160.MAX_VALUE, Number160.MAX_VALUE);
+				HierarchicalKeyLock.Lock lock1 = dataLock.readLock(from, to);
 				try {
-					if (isEmpty(locationKey)) {
+					if (isEmpty(from, to)) {
 						backend.removeResponsibility(locationKey);
 					}
 				} finally {
@@ -353,16 +329,14 @@ public class StorageLayer {
 		}
 	}
 
-	private boolean isEmpty(Number160 locationKey) {
-		Number640 from = new Number640(locationKey, Number160.ZERO, Number160.ZERO, Number160.ZERO);
-		Number640 to = new Number640(locationKey, Number160.MAX_VALUE, Number160.MAX_VALUE, Number160.MAX_VALUE);
+	private boolean isEmpty(Number640 from, Number640 to) {
 		Map<Number640, Data> tmp = backend.subMap(from, to, 1, false);
 		return tmp.size() == 0;
 	}
 
 	public DigestInfo digest(Number640 from, Number640 to, int limit, boolean ascending) {
 		DigestInfo digestInfo = new DigestInfo();
-		KeyLock<?>.RefCounterLock lock = findAndLock(from, to);
+		HierarchicalKeyLock.Lock lock = dataLock.readLock(from, to);
 		try {
 			Map<Number640, Data> tmp = backend.subMap(from, to, limit, ascending);
 			for (Map.Entry<Number640, Data> entry : tmp.entrySet()) {
@@ -378,10 +352,10 @@ public class StorageLayer {
 	public DigestInfo digest(Number320 locationAndDomainKey, SimpleBloomFilter<Number160> keyBloomFilter,
 	        SimpleBloomFilter<Number160> contentBloomFilter, int limit, boolean ascending, boolean isBloomFilterAnd) {
 		DigestInfo digestInfo = new DigestInfo();
-		KeyLock<Number320>.RefCounterLock lock = dataLock320.lock(locationAndDomainKey);
+		Number640 from = new Number640(locationAndDomainKey, Number160.ZERO, Number160.ZERO);
+		Number640 to = new Number640(locationAndDomainKey, Number160.MAX_VALUE, Number160.MAX_VALUE);
+		HierarchicalKeyLock.Lock lock = dataLock.readLock(from, to);
 		try {
-			Number640 from = new Number640(locationAndDomainKey, Number160.ZERO, Number160.ZERO);
-			Number640 to = new Number640(locationAndDomainKey, Number160.MAX_VALUE, Number160.MAX_VALUE);
 			Map<Number640, Data> tmp = backend.subMap(from, to, limit, ascending);
 			for (Map.Entry<Number640, Data> entry : tmp.entrySet()) {
 				if (isBloomFilterAnd) {
@@ -409,7 +383,7 @@ public class StorageLayer {
 	public DigestInfo digest(Collection<Number640> number640s) {
 		DigestInfo digestInfo = new DigestInfo();
 		for (Number640 number640 : number640s) {
-			KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(number640);
+			HierarchicalKeyLock.Lock lock = dataLock.readLock(number640);
 			try {
 				if (backend.contains(number640)) {
 					Data data = getInternal(number640);
@@ -527,22 +501,10 @@ public class StorageLayer {
 		return key.equals(Utils.makeSHAHash(publicKey.getEncoded()));
 	}
 
-	public KeyLock<Storage> getLockStorage() {
+	public HierarchicalKeyLock getLock() {
 		return dataLock;
 	}
 
-	public KeyLock<Number160> getLockNumber160() {
-		return dataLock160;
-	}
-
-	public KeyLock<Number320> getLockNumber320() {
-		return dataLock320;
-	}
-
-	public KeyLock<Number480> getLockNumber480() {
-		return dataLock480;
-	}
-
 	public Collection<Number160> findContentForResponsiblePeerID(Number160 peerID) {
 		return backend.findContentForResponsiblePeerID(peerID);
 	}
@@ -568,7 +530,7 @@ public class StorageLayer {
 
 	public Enum<?> updateMeta(PublicKey publicKey, Number640 key, Data newData) {
 		boolean found = false;
-		KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+		HierarchicalKeyLock.Lock lock = dataLock.writeLock(key);
 		try {
 			if (!securityEntryCheck(key.locationDomainAndContentKey(), publicKey, newData.publicKey(),
 			        newData.isProtectedEntry())) {
@@ -597,7 +559,7 @@ public class StorageLayer {
 				found = backend.put(key, data);
 			}
 		} finally {
-			dataLock640.unlock(lock);
+			lock.unlock();
 		}
 		return found ? PutStatus.OK : PutStatus.NOT_FOUND;
 	}
@@ -44,6 +44,7 @@ import net.tomp2p.p2p.PeerMaker;
 import net.tomp2p.utils.Pair;
 
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -317,6 +318,53 @@ public class TestReservation {
 		ev.shutdownGracefully().awaitUninterruptibly();
 	}
 
+	/**
+	 * Test that waiting requests are served by the release of permits, user
+	 * requests before maintenance requests, and that a request for other
+	 * permits is not held back.
+	 *
+	 * @throws InterruptedException .
+	 */
+	@Test
+	public void testReservationPriority() throws InterruptedException {
+		ChannelClientConfiguration c = PeerMaker.createDefaultChannelClientConfiguration();
+		c.pipelineFilter(new MyPipeLine());
+		c.maxPermitsUDP(2);
+		c.maxPermitsTCP(2);
+		Reservation r = new Reservation(workerGroup, c);
+
+		FutureChannelCreator fcc1 = r.create(0, 2);
+		Assert.assertTrue(fcc1.awaitUninterruptibly(1000));
+		FutureChannelCreator fcc2 = r.create(0, 2, Reservation.Priority.MAINTENANCE);
+		FutureChannelCreator fcc3 = r.create(0, 1);
+		// UDP permits are available, no need to wait for the TCP requests
+		FutureChannelCreator fcc4 = r.create(2, 0);
+		Assert.assertTrue(fcc4.awaitUninterruptibly(1000));
+		Assert.assertFalse(fcc2.isCompleted());
+		Assert.assertFalse(fcc3.isCompleted());
+		Assert.assertEquals(2, r.pendingRequests());
+		Assert.assertEquals(1, r.pendingRequests(Reservation.Priority.MAINTENANCE));
+
+		// the user request comes first, the maintenance request needs both
+		// permits
+		fcc1.getChannelCreator().shutdown().awaitListenersUninterruptibly();
+		Assert.assertTrue(fcc3.awaitUninterruptibly(1000));
+		Assert.assertFalse(fcc2.isCompleted());
+		Assert.assertEquals(1, r.availablePermitsTCP());
+
+		fcc3.getChannelCreator().shutdown().awaitListenersUninterruptibly();
+		Assert.assertTrue(fcc2.awaitUninterruptibly(1000));
+		Assert.assertEquals(0, r.pendingRequests());
+		Assert.assertEquals(4, r.reservedRequests());
+		Assert.assertTrue(r.maxWaitMillis() >= 0);
+
+		fcc2.getChannelCreator().shutdown().awaitListenersUninterruptibly();
+		fcc4.getChannelCreator().shutdown().awaitListenersUninterruptibly();
+		Assert.assertEquals(2, r.availablePermitsTCP());
+		Assert.assertEquals(2, r.availablePermitsUDP());
+		r.shutdown().awaitUninterruptibly();
+	}
+
 	private static class MyPipeLine implements PipelineFilter {
 
 		@Override
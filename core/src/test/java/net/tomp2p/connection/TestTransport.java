@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTransport {
+
+    @Test
+    public void testFallback() {
+        Assert.assertEquals(Transport.NIO, Transport.NIO.resolve());
+        final Transport expected = Transport.isEpollAvailable() ? Transport.EPOLL : Transport.NIO;
+        Assert.assertEquals(expected, Transport.AUTO.resolve());
+        Assert.assertEquals(expected, Transport.EPOLL.resolve());
+        if (expected == Transport.NIO) {
+            Assert.assertEquals(NioDatagramChannel.class, Transport.EPOLL.datagramChannel());
+            Assert.assertNull(Transport.EPOLL.reusePort());
+        }
+    }
+
+    @Test
+    public void testEventLoopGroup() {
+        final EventLoopGroup group = Transport.AUTO.newEventLoopGroup(1, new DefaultThreadFactory("test"));
+        try {
+            Assert.assertEquals(Transport.AUTO.resolve(), Transport.of(group));
+        } finally {
+            group.shutdownGracefully().awaitUninterruptibly();
+        }
+    }
+}
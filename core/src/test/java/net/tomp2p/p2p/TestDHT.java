@@ -778,7 +778,7 @@ public class TestDHT {
 			System.err.println(e2);
 			Entry<Number640, Number160> e3 = map.pollFirstEntry();
 			Assert.assertEquals(Number160.ONE, e1.getValue());
-			Assert.assertEquals(new Number640(nr, Number160.ZERO, key, versionKey2), e3.getKey());
+			Assert.assertEquals(new Number640(nr, Number160.ZERO, key, versionKey3), e3.getKey());
 			System.err.println(e3);
 
 		} finally {
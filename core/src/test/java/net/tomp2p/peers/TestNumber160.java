@@ -16,7 +16,10 @@
 
 package net.tomp2p.peers;
 
+import io.netty.buffer.Unpooled;
+
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.ConcurrentSkipListSet;
 
@@ -282,4 +285,40 @@ public class TestNumber160 {
         n2 = new Number160(Long.MAX_VALUE);
         Assert.assertEquals("0x7FFFFFFFFFFFFFFF".toLowerCase(), n2.toString());
     }
+
+    @Test
+    public void testRandomCompareAndDistance() {
+        for (int i = 0; i < 1000; i++) {
+            // also test numbers with leading zeros
+            BigInteger bi1 = new BigInteger(rnd.nextInt(161), rnd);
+            BigInteger bi2 = new BigInteger(rnd.nextInt(161), rnd);
+            BigInteger bi3 = new BigInteger(160, rnd);
+            Number160 ki1 = new Number160("0x" + bi1.toString(16));
+            Number160 ki2 = new Number160("0x" + bi2.toString(16));
+            Number160 ki3 = new Number160("0x" + bi3.toString(16));
+            Assert.assertEquals(bi1.compareTo(bi2), ki1.compareTo(ki2));
+            Assert.assertEquals(bi1.bitLength(), ki1.bitLength());
+            Assert.assertEquals(bi1.xor(bi2).bitLength(), ki1.xorBitLength(ki2));
+            Assert.assertEquals(bi3.xor(bi1).compareTo(bi3.xor(bi2)), ki3.compareXor(ki1, ki2));
+            Assert.assertEquals(ki1.xor(ki2).isZero(), bi1.equals(bi2));
+        }
+    }
+
+    @Test
+    public void testHashCodeAndBytes() {
+        for (int i = 0; i < 100; i++) {
+            Number160 ki1 = new Number160(rnd);
+            int hashCode = 0;
+            for (int val : ki1.toIntArray()) {
+                hashCode = (int) (31 * hashCode + (val & 0xffffffffL));
+            }
+            Assert.assertEquals(hashCode, ki1.hashCode());
+            byte[] me = ki1.toByteArray();
+            Assert.assertEquals(ki1, new Number160(me));
+            Assert.assertEquals(ki1, new Number160(Unpooled.wrappedBuffer(me)));
+            Assert.assertEquals(new Number160(Arrays.copyOfRange(me, 7, 20)), new Number160(me, 7, 13));
+            Assert.assertEquals(new BigInteger(1, Arrays.copyOfRange(me, 7, 20)).toString(16),
+                    new Number160(me, 7, 13).toString().substring(2));
+        }
+    }
 }
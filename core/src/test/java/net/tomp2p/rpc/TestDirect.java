@@ -372,4 +372,69 @@ public class TestDirect {
             }
         }
     }
+
+    @Test
+    public void testPeerConnectionPipelining() throws Exception {
+        Peer sender = null;
+        Peer recv1 = null;
+        try {
+            final CountConnectionOutboundHandler ccohTCP = new CountConnectionOutboundHandler();
+            PipelineFilter pf = new PipelineFilter() {
+                @Override
+                public Map<String, Pair<EventExecutorGroup, ChannelHandler>> filter(
+                        Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers, boolean tcp,
+                        boolean client) {
+                    Map<String, Pair<EventExecutorGroup, ChannelHandler>> retVal = new LinkedHashMap<String, Pair<EventExecutorGroup, ChannelHandler>>();
+                    if (tcp) {
+                        retVal.put("counter", new Pair<EventExecutorGroup, ChannelHandler>(null, ccohTCP));
+                    }
+                    retVal.putAll(channelHandlers);
+                    return retVal;
+                }
+            };
+            ChannelClientConfiguration ccc = PeerMaker.createDefaultChannelClientConfiguration();
+            ccc.pipelineFilter(pf);
+            sender = new PeerMaker(new Number160("0x50")).p2pId(55).ports(2424).setEnableMaintenance(false)
+                    .channelClientConfiguration(ccc).makeAndListen();
+            recv1 = new PeerMaker(new Number160("0x20")).p2pId(55).ports(8088).setEnableMaintenance(false)
+                    .makeAndListen();
+            recv1.setObjectDataReply(new ObjectDataReply() {
+                @Override
+                public Object reply(PeerAddress sender, Object request) throws Exception {
+                    Thread.sleep(100);
+                    return (Integer) request + 1;
+                }
+            });
+            FuturePeerConnection peerConnection = sender.createPeerConnection(recv1.getPeerAddress());
+            // open the connection
+            FutureDirect first = sender.sendDirect(peerConnection).setObject(0).start();
+            first.awaitUninterruptibly();
+            Assert.assertEquals(true, first.isSuccess());
+            ccohTCP.reset();
+
+            final int nr = PeerConnection.MAX_IN_FLIGHT + 4;
+            FutureDirect[] futures = new FutureDirect[nr];
+            for (int i = 0; i < nr; i++) {
+                futures[i] = sender.sendDirect(peerConnection).setObject(i).start();
+            }
+            // all requests are sent without waiting for the first reply, up to the window
+            Assert.assertEquals(PeerConnection.MAX_IN_FLIGHT, peerConnection.peerConnection().inFlight());
+            for (int i = 0; i < nr; i++) {
+                futures[i].awaitUninterruptibly();
+                Assert.assertEquals(true, futures[i].isSuccess());
+                Assert.assertEquals(i + 1, futures[i].object());
+            }
+            Assert.assertEquals(0, peerConnection.peerConnection().inFlight());
+            // no new connection was needed
+            Assert.assertEquals(0, ccohTCP.total());
+            peerConnection.close().await();
+        } finally {
+            if (sender != null) {
+                sender.shutdown().await();
+            }
+            if (recv1 != null) {
+                recv1.shutdown().await();
+            }
+        }
+    }
 }
@@ -1,10 +1,12 @@
 package net.tomp2p.rpc;
 
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 
 import net.tomp2p.connection.Bindings;
 import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.ConnectionPool;
 import net.tomp2p.connection.DefaultConnectionConfiguration;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
@@ -330,6 +332,48 @@ public class TestPing {
         }
     }
 
+    @Test
+    public void testPingTCPReuseConnection() throws Exception {
+        Peer sender = null;
+        Peer recv1 = null;
+        ChannelCreator cc = null;
+        try {
+            sender = new PeerMaker(new Number160("0x9876")).p2pId(55).ports(2424).makeAndListen();
+            recv1 = new PeerMaker(new Number160("0x1234")).p2pId(55).ports(8088).makeAndListen();
+            ConnectionPool pool = sender.getConnectionBean().reservation().connectionPool();
+            InetSocketAddress recipient = recv1.getPeerAddress().createSocketTCP();
+            // one permit is enough, as the channel is given back after each reply
+            FutureChannelCreator fcc = sender.getConnectionBean().reservation().create(0, 1);
+            fcc.awaitUninterruptibly();
+            cc = fcc.getChannelCreator();
+            for (int i = 0; i < 5; i++) {
+                FutureResponse fr = sender.pingRPC().pingTCP(recv1.getPeerAddress(), cc,
+                        new DefaultConnectionConfiguration());
+                fr.awaitUninterruptibly();
+                Assert.assertEquals(true, fr.isSuccess());
+                Assert.assertEquals(1, cc.availableTCPPermits());
+                Assert.assertEquals(1, pool.idleChannels(recipient));
+            }
+            // the pooled channel survives the channel creator
+            cc.shutdown().await();
+            cc = null;
+            Assert.assertEquals(1, pool.idleChannels(recipient));
+            // idle channels are evicted by the heart beat
+            Thread.sleep(pool.idleMillis() * 3);
+            Assert.assertEquals(0, pool.idleChannels());
+        } finally {
+            if (cc != null) {
+                cc.shutdown().await();
+            }
+            if (sender != null) {
+                sender.shutdown().await();
+            }
+            if (recv1 != null) {
+                recv1.shutdown().await();
+            }
+        }
+    }
+
     @Test
     public void testPingTCPPool2() throws Exception {
         Peer p[] = new Peer[50];
@@ -310,9 +310,92 @@ public class TestStorage {
         lock.unlock(tmp2);
         Assert.assertEquals(0, lock.cacheSize());
     }
-    
+
+    @Test
+    public void testLockMutualExclusion() throws InterruptedException {
+        final KeyLock<Number160> lock = new KeyLock<Number160>();
+        final int[] counter = new int[1];
+        Thread[] threads = new Thread[10];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        KeyLock<Number160>.RefCounterLock tmp = lock.lock(Number160.createHash("test"));
+                        counter[0]++;
+                        lock.unlock(tmp);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(10000, counter[0]);
+        Assert.assertEquals(0, lock.cacheSize());
+    }
+
+    @Test
+    public void testHierarchicalLockDisjoint() {
+        HierarchicalKeyLock lock = new HierarchicalKeyLock();
+        // point writes on different keys and a range read on another location do not block
+        HierarchicalKeyLock.Lock tmp1 = lock.writeLock(key1);
+        HierarchicalKeyLock.Lock tmp2 = lock.writeLock(key2);
+        Number640 other = new Number640(content1, domainKey, content1, Number160.ZERO);
+        HierarchicalKeyLock.Lock tmp3 = lock.readLock(other, other.maxContentKey());
+        HierarchicalKeyLock.Lock tmp4 = lock.readLock(other, other.maxContentKey());
+        Assert.assertEquals(4, tmp1.level());
+        Assert.assertEquals(2, tmp3.level());
+        tmp1.unlock();
+        tmp2.unlock();
+        tmp3.unlock();
+        tmp4.unlock();
+        Assert.assertEquals(0, lock.cacheSize());
+    }
+
+    @Test
+    public void testHierarchicalLockRange() throws InterruptedException {
+        final HierarchicalKeyLock lock = new HierarchicalKeyLock();
+        final AtomicInteger counter = new AtomicInteger();
+        HierarchicalKeyLock.Lock range = lock.readLock(key1, key4);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                HierarchicalKeyLock.Lock tmp = lock.writeLock(key2);
+                counter.incrementAndGet();
+                tmp.unlock();
+            }
+        });
+        writer.start();
+        Thread.sleep(200);
+        // the put within the range has to wait for the range read
+        Assert.assertEquals(0, counter.get());
+        range.unlock();
+        writer.join();
+        Assert.assertEquals(1, counter.get());
+
+        HierarchicalKeyLock.Lock point = lock.writeLock(key3);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                HierarchicalKeyLock.Lock tmp = lock.readLock();
+                counter.incrementAndGet();
+                tmp.unlock();
+            }
+        });
+        reader.start();
+        Thread.sleep(200);
+        // the full read has to wait for the put
+        Assert.assertEquals(1, counter.get());
+        point.unlock();
+        reader.join();
+        Assert.assertEquals(2, counter.get());
+        Assert.assertEquals(0, lock.cacheSize());
+    }
+
     @Test
-    public void testConcurrency() throws InterruptedException, IOException {
+    public void testConcurrency()throws InterruptedException, IOException {
         final StorageMemory sM = new StorageMemory();
         final StorageLayer storageGeneric = new StorageLayer(sM);
         store(storageGeneric);
@@ -1,12 +1,12 @@
 /*
  * Copyright 2012 Thomas Bocek
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
  * the License at
- * 
+ *
  * http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
@@ -16,155 +16,557 @@
 
 package net.tomp2p.storage;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.InvalidKeyException;
 import java.security.PublicKey;
+import java.security.SignatureException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
 
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.connection.SignatureFactory;
+import net.tomp2p.p2p.PeerMaker;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number320;
 import net.tomp2p.peers.Number480;
 import net.tomp2p.peers.Number640;
 
+import org.mapdb.BTreeKeySerializer;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
+import org.mapdb.Fun;
+import org.mapdb.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * A disk based storage backed by MapDB. The keys are kept in B-trees, while the values are stored outside of the tree
+ * nodes. Thus, range scans only touch the keys and the values are only loaded for the entries that are actually
+ * returned. With the default settings, the file is memory mapped, so the values live off-heap. An optional LRU cache
+ * keeps the most recently used entries deserialized.
+ *
+ * @author Thomas Bocek
+ *
+ */
 public class StorageDisk implements Storage {
     final private static Logger LOG = LoggerFactory.getLogger(StorageDisk.class);
-    
+
+    // the number of entries kept in the instance cache if nothing else is set
+    public static final int DEFAULT_CACHE_SIZE = 32768;
+
     final private DB db;
-    
-    //for full control
-    public StorageDisk(DB db) {
-    	this.db = db;
-    }
-    
-    //set parameter to a reasonable default
-    public StorageDisk(File file) {
-    	db = DBMaker.newFileDB(file).make();
-    }
 
-	@Override
-    public Number160 findPeerIDForResponsibleContent(Number160 locationKey) {
-	    // TODO Auto-generated method stub
-	    return null;
+    // Core
+    final private NavigableMap<Number640, Data> dataMap;
+
+    // Maintenance
+    final private Map<Number640, Long> timeoutMap;
+    final private NavigableSet<Fun.Tuple2<Long, Number640>> timeoutMapRev;
+
+    // Protection
+    final private Map<Number320, PublicKey> protectedMap;
+    final private Map<Number480, PublicKey> entryMap;
+
+    // Replication
+    // maps content (locationKey) to peerid
+    final private Map<Number160, Number160> responsibilityMap;
+    // maps peerid to content (locationKey)
+    final private NavigableSet<Fun.Tuple2<Number160, Number160>> responsibilityMapRev;
+
+    final private KeyLock<Number160> responsibilityLock = new KeyLock<Number160>();
+
+    /**
+     * Creates a disk storage on top of an already configured database. This is for full control, the caller is
+     * responsible for the settings of the database. If transactions are enabled, the data is committed on
+     * {@link #close()}.
+     *
+     * @param db
+     *            The MapDB database
+     * @param signatureFactory
+     *            The signature factory to encode and decode public keys
+     */
+    public StorageDisk(DB db, SignatureFactory signatureFactory) {
+        this.db = db;
+        final Number160Serializer number160Serializer = new Number160Serializer();
+        final Number640Serializer number640Serializer = new Number640Serializer();
+        final PublicKeySerializer publicKeySerializer = new PublicKeySerializer(signatureFactory);
+
+        dataMap = db.createTreeMap("data").valuesOutsideNodesEnable()
+                .keySerializerWrap(number640Serializer).valueSerializer(new DataSerializer(signatureFactory))
+                .makeOrGet();
+
+        timeoutMap = db.createHashMap("timeout").keySerializer(number640Serializer)
+                .valueSerializer(Serializer.LONG).makeOrGet();
+        timeoutMapRev = db.createTreeSet("timeout-rev")
+                .serializer(new BTreeKeySerializer.Tuple2KeySerializer<Long, Number640>(
+                        Fun.COMPARATOR, Serializer.LONG, number640Serializer)).makeOrGet();
+
+        protectedMap = db.createHashMap("protected-domain").keySerializer(new Number320Serializer())
+                .valueSerializer(publicKeySerializer).makeOrGet();
+        entryMap = db.createHashMap("protected-entry").keySerializer(new Number480Serializer())
+                .valueSerializer(publicKeySerializer).makeOrGet();
+
+        responsibilityMap = db.createHashMap("responsibility").keySerializer(number160Serializer)
+                .valueSerializer(number160Serializer).makeOrGet();
+        responsibilityMapRev = db.createTreeSet("responsibility-rev")
+                .serializer(new BTreeKeySerializer.Tuple2KeySerializer<Number160, Number160>(
+                        Fun.COMPARATOR, number160Serializer, number160Serializer)).makeOrGet();
     }
 
-	@Override
-    public Collection<Number160> findContentForResponsiblePeerID(Number160 peerID) {
-	    // TODO Auto-generated method stub
-	    return null;
+    /**
+     * Creates a disk storage with a reasonable default: no transactions, memory mapped file (if supported) and an LRU
+     * cache of {@link #DEFAULT_CACHE_SIZE} entries.
+     *
+     * @param file
+     *            The file where the data is stored
+     */
+    public StorageDisk(File file) {
+        this(file, DEFAULT_CACHE_SIZE);
     }
 
-	@Override
-    public boolean updateResponsibilities(Number160 locationKey, Number160 peerId) {
-	    // TODO Auto-generated method stub
-	    return false;
+    /**
+     * Creates a disk storage with no transactions and a memory mapped file (if supported).
+     *
+     * @param file
+     *            The file where the data is stored
+     * @param cacheSize
+     *            The number of recently used entries kept on the heap. If set to 0, the cache is disabled and every
+     *            access is served from the file
+     */
+    public StorageDisk(File file, int cacheSize) {
+        this(createDB(file, cacheSize), new DSASignatureFactory());
     }
 
-	@Override
-    public void removeResponsibility(Number160 locationKey) {
-	    // TODO Auto-generated method stub
-	    
+    @SuppressWarnings("rawtypes")
+    private static DB createDB(File file, int cacheSize) {
+        DBMaker dbMaker = DBMaker.newFileDB(file).transactionDisable().mmapFileEnableIfSupported();
+        if (cacheSize > 0) {
+            dbMaker = dbMaker.cacheLRUEnable().cacheSize(cacheSize);
+        } else {
+            dbMaker = dbMaker.cacheDisable();
+        }
+        return dbMaker.make();
     }
 
-	@Override
+    // Core
+    @Override
     public boolean put(Number640 key, Data value) {
-	    // TODO Auto-generated method stub
-	    return false;
+        dataMap.put(key, value);
+        return true;
     }
 
-	@Override
+    @Override
     public Data get(Number640 key) {
-	    // TODO Auto-generated method stub
-	    return null;
+        return dataMap.get(key);
     }
 
-	@Override
+    @Override
     public boolean contains(Number640 key) {
-	    // TODO Auto-generated method stub
-	    return false;
+        return dataMap.containsKey(key);
     }
 
-	@Override
-    public int contains(Number640 from, Number640 to) {
-	    // TODO Auto-generated method stub
-	    return 0;
+    @Override
+    public int contains(Number640 fromKey, Number640 toKey) {
+        // count on the keys only, the values stay on disk
+        int counter = 0;
+        for (Iterator<Number640> iterator = dataMap.subMap(fromKey, true, toKey, true).keySet().iterator(); iterator
+                .hasNext(); iterator.next()) {
+            counter++;
+        }
+        return counter;
     }
 
-	@Override
+    @Override
     public Data remove(Number640 key, boolean returnData) {
-	    // TODO Auto-generated method stub
-	    return null;
+        if (returnData) {
+            return dataMap.remove(key);
+        }
+        dataMap.keySet().remove(key);
+        return null;
     }
 
-	@Override
-    public NavigableMap<Number640, Data> remove(Number640 from, Number640 to, boolean returnData) {
-	    // TODO Auto-generated method stub
-	    return null;
+    @Override
+    public NavigableMap<Number640, Data> remove(Number640 fromKey, Number640 toKey, boolean returnData) {
+        NavigableMap<Number640, Data> tmp = dataMap.subMap(fromKey, true, toKey, true);
+        NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
+        // copy the keys first, we cannot remove while iterating over the b-tree
+        Collection<Number640> keys = new ArrayList<Number640>(tmp.keySet());
+        for (Number640 key : keys) {
+            retVal.put(key, remove(key, returnData));
+        }
+        return retVal;
     }
 
-	@Override
-    public NavigableMap<Number640, Data> subMap(Number640 from, Number640 to, int limit, boolean ascending) {
-	    // TODO Auto-generated method stub
-	    return null;
+    @Override
+    public NavigableMap<Number640, Data> subMap(Number640 fromKey, Number640 toKey, int limit, boolean ascending) {
+        NavigableMap<Number640, Data> tmp = dataMap.subMap(fromKey, true, toKey, true);
+        NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
+        // stream from the b-tree, stop as soon as we have enough entries
+        Iterator<Map.Entry<Number640, Data>> iterator = ascending ? tmp.entrySet().iterator() : tmp
+                .descendingMap().entrySet().iterator();
+        for (int i = 0; iterator.hasNext() && (limit < 0 || i < limit); i++) {
+            Map.Entry<Number640, Data> entry = iterator.next();
+            retVal.put(entry.getKey(), entry.getValue());
+        }
+        return retVal;
     }
 
-	@Override
+    @Override
     public NavigableMap<Number640, Data> map() {
-	    // TODO Auto-generated method stub
-	    return null;
-    }
-
-	@Override
-    public void close() {
-	    // TODO Auto-generated method stub
-	    
+        // this loads all the values from the disk
+        return new TreeMap<Number640, Data>(dataMap);
     }
 
-	@Override
+    // Maintenance
+    @Override
     public void addTimeout(Number640 key, long expiration) {
-	    // TODO Auto-generated method stub
-	    
+        Long oldExpiration = timeoutMap.put(key, expiration);
+        timeoutMapRev.add(Fun.t2(expiration, key));
+        if (oldExpiration == null || oldExpiration == expiration) {
+            return;
+        }
+        timeoutMapRev.remove(Fun.t2(oldExpiration, key));
     }
 
-	@Override
+    @Override
     public void removeTimeout(Number640 key) {
-	    // TODO Auto-generated method stub
-	    
+        Long expiration = timeoutMap.remove(key);
+        if (expiration == null) {
+            return;
+        }
+        timeoutMapRev.remove(Fun.t2(expiration, key));
     }
 
-	@Override
+    @Override
     public Collection<Number640> subMapTimeout(long to) {
-	    // TODO Auto-generated method stub
-	    return null;
+        Collection<Number640> toRemove = new ArrayList<Number640>();
+        // null is the lowest possible value, thus (to, null) excludes the expiration "to"
+        for (Fun.Tuple2<Long, Number640> tuple : timeoutMapRev.headSet(Fun.t2(to, (Number640) null))) {
+            toRemove.add(tuple.b);
+        }
+        return toRemove;
     }
 
-	@Override
+    // Protection
+    @Override
     public boolean protectDomain(Number320 key, PublicKey publicKey) {
-	    // TODO Auto-generated method stub
-	    return false;
+        protectedMap.put(key, publicKey);
+        return true;
     }
 
-	@Override
+    @Override
     public boolean isDomainProtectedByOthers(Number320 key, PublicKey publicKey) {
-	    // TODO Auto-generated method stub
-	    return false;
+        PublicKey other = protectedMap.get(key);
+        if (other == null) {
+            return false;
+        }
+        return !other.equals(publicKey);
     }
 
-	@Override
+    @Override
     public boolean protectEntry(Number480 key, PublicKey publicKey) {
-	    // TODO Auto-generated method stub
-	    return false;
+        entryMap.put(key, publicKey);
+        return true;
     }
 
-	@Override
+    @Override
     public boolean isEntryProtectedByOthers(Number480 key, PublicKey publicKey) {
-	    // TODO Auto-generated method stub
-	    return false;
+        PublicKey other = entryMap.get(key);
+        if (other == null) {
+            return false;
+        }
+        return !other.equals(publicKey);
     }
 
-   
-}
\ No newline at end of file
+    // Replication
+    @Override
+    public Number160 findPeerIDForResponsibleContent(Number160 locationKey) {
+        return responsibilityMap.get(locationKey);
+    }
+
+    @Override
+    public Collection<Number160> findContentForResponsiblePeerID(Number160 peerID) {
+        Collection<Number160> contentIDs = new ArrayList<Number160>();
+        for (Fun.Tuple2<Number160, Number160> tuple : responsibilityMapRev.subSet(
+                Fun.t2(peerID, (Number160) null), Fun.t2(peerID, Fun.<Number160> HI()))) {
+            contentIDs.add(tuple.b);
+        }
+        return contentIDs;
+    }
+
+    @Override
+    public boolean updateResponsibilities(Number160 locationKey, Number160 peerId) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("store responsibility for locationkey " + locationKey + " and peer " + peerId);
+        }
+        boolean isNew = true;
+        Number160 oldPeerId = responsibilityMap.put(locationKey, peerId);
+        // add to the reverse map
+        KeyLock<Number160>.RefCounterLock lock1 = responsibilityLock.lock(peerId);
+        try {
+            responsibilityMapRev.add(Fun.t2(peerId, locationKey));
+        } finally {
+            responsibilityLock.unlock(lock1);
+        }
+        if (oldPeerId != null) {
+            isNew = !oldPeerId.equals(peerId);
+            if (isNew) {
+                KeyLock<Number160>.RefCounterLock lock2 = responsibilityLock.lock(oldPeerId);
+                try {
+                    // clean up reverse map
+                    responsibilityMapRev.remove(Fun.t2(oldPeerId, locationKey));
+                } finally {
+                    responsibilityLock.unlock(lock2);
+                }
+            }
+        }
+        return isNew;
+    }
+
+    @Override
+    public void removeResponsibility(Number160 locationKey) {
+        Number160 peerId = responsibilityMap.remove(locationKey);
+        if (peerId == null) {
+            return;
+        }
+        KeyLock<Number160>.RefCounterLock lock = responsibilityLock.lock(peerId);
+        try {
+            responsibilityMapRev.remove(Fun.t2(peerId, locationKey));
+        } finally {
+            responsibilityLock.unlock(lock);
+        }
+    }
+
+    // Misc
+    @Override
+    public void close() {
+        if (!db.isClosed()) {
+            db.commit();
+            db.close();
+        }
+    }
+
+    /**
+     * Stores a {@link Number160} as 20 bytes.
+     */
+    static class Number160Serializer implements Serializer<Number160>, Serializable {
+        private static final long serialVersionUID = -2540546124386564389L;
+
+        @Override
+        public void serialize(DataOutput out, Number160 value) throws IOException {
+            out.write(value.toByteArray());
+        }
+
+        @Override
+        public Number160 deserialize(DataInput in, int available) throws IOException {
+            return read(in);
+        }
+
+        @Override
+        public int fixedSize() {
+            return Number160.BYTE_ARRAY_SIZE;
+        }
+
+        static Number160 read(DataInput in) throws IOException {
+            byte[] me = new byte[Number160.BYTE_ARRAY_SIZE];
+            in.readFully(me);
+            return new Number160(me);
+        }
+    }
+
+    /**
+     * Stores a {@link Number320} as 40 bytes.
+     */
+    static class Number320Serializer implements Serializer<Number320>, Serializable {
+        private static final long serialVersionUID = 5361276925446187025L;
+
+        @Override
+        public void serialize(DataOutput out, Number320 value) throws IOException {
+            out.write(value.getLocationKey().toByteArray());
+            out.write(value.getDomainKey().toByteArray());
+        }
+
+        @Override
+        public Number320 deserialize(DataInput in, int available) throws IOException {
+            return new Number320(Number160Serializer.read(in), Number160Serializer.read(in));
+        }
+
+        @Override
+        public int fixedSize() {
+            return Number160.BYTE_ARRAY_SIZE * 2;
+        }
+    }
+
+    /**
+     * Stores a {@link Number480} as 60 bytes.
+     */
+    static class Number480Serializer implements Serializer<Number480>, Serializable {
+        private static final long serialVersionUID = 2766284476406618916L;
+
+        @Override
+        public void serialize(DataOutput out, Number480 value) throws IOException {
+            out.write(value.getLocationKey().toByteArray());
+            out.write(value.getDomainKey().toByteArray());
+            out.write(value.getContentKey().toByteArray());
+        }
+
+        @Override
+        public Number480 deserialize(DataInput in, int available) throws IOException {
+            return new Number480(Number160Serializer.read(in), Number160Serializer.read(in),
+                    Number160Serializer.read(in));
+        }
+
+        @Override
+        public int fixedSize() {
+            return Number160.BYTE_ARRAY_SIZE * 3;
+        }
+    }
+
+    /**
+     * Stores a {@link Number640} as 80 bytes.
+     */
+    static class Number640Serializer implements Serializer<Number640>, Serializable {
+        private static final long serialVersionUID = -4208291424869469741L;
+
+        @Override
+        public void serialize(DataOutput out, Number640 value) throws IOException {
+            out.write(value.getLocationKey().toByteArray());
+            out.write(value.getDomainKey().toByteArray());
+            out.write(value.getContentKey().toByteArray());
+            out.write(value.getVersionKey().toByteArray());
+        }
+
+        @Override
+        public Number640 deserialize(DataInput in, int available) throws IOException {
+            return new Number640(Number160Serializer.read(in), Number160Serializer.read(in),
+                    Number160Serializer.read(in), Number160Serializer.read(in));
+        }
+
+        @Override
+        public int fixedSize() {
+            return Number160.BYTE_ARRAY_SIZE * 4;
+        }
+    }
+
+    /**
+     * Stores a public key in the same format as it is sent over the wire. The signature factory is not persisted, if
+     * the database is reopened, the {@link DSASignatureFactory} is used.
+     */
+    static class PublicKeySerializer implements Serializer<PublicKey>, Serializable {
+        private static final long serialVersionUID = 2994328416165406286L;
+
+        final private transient SignatureFactory signatureFactory;
+
+        public PublicKeySerializer(SignatureFactory signatureFactory) {
+            this.signatureFactory = signatureFactory;
+        }
+
+        @Override
+        public void serialize(DataOutput out, PublicKey value) throws IOException {
+            byte[] me = value.getEncoded();
+            if (me == null) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(me.length);
+                out.write(me);
+            }
+        }
+
+        @Override
+        public PublicKey deserialize(DataInput in, int available) throws IOException {
+            int len = in.readUnsignedShort();
+            if (len == 0) {
+                return PeerMaker.EMPTY_PUBLICKEY;
+            }
+            byte[] me = new byte[len];
+            in.readFully(me);
+            return signatureFactory().decodePublicKey(me);
+        }
+
+        @Override
+        public int fixedSize() {
+            return -1;
+        }
+
+        private SignatureFactory signatureFactory() {
+            return signatureFactory == null ? new DSASignatureFactory() : signatureFactory;
+        }
+    }
+
+    /**
+     * Stores a data object in the same format as it is sent over the wire, prefixed with the time it became valid.
+     * The signature factory is not persisted, if the database is reopened, the {@link DSASignatureFactory} is used.
+     */
+    static class DataSerializer implements Serializer<Data>, Serializable {
+        private static final long serialVersionUID = 8357227452914936364L;
+
+        final private transient SignatureFactory signatureFactory;
+
+        public DataSerializer(SignatureFactory signatureFactory) {
+            this.signatureFactory = signatureFactory;
+        }
+
+        @Override
+        public void serialize(DataOutput out, Data value) throws IOException {
+            final SignatureFactory signatureFactory = signatureFactory();
+            // work on a copy, the encoding moves the transfer pointers
+            final Data data = value.duplicate();
+            if (data.publicKey() == PeerMaker.EMPTY_PUBLICKEY) {
+                // encoded with a length of 0, decodes to the empty public key
+                data.publicKey(null);
+            }
+            final AlternativeCompositeByteBuf buf = AlternativeCompositeByteBuf.compBuffer();
+            try {
+                data.encodeHeader(buf, signatureFactory);
+                data.encodeBuffer(buf);
+                data.encodeDone(buf, signatureFactory);
+            } catch (InvalidKeyException e) {
+                throw new IOException(e);
+            } catch (SignatureException e) {
+                throw new IOException(e);
+            }
+            out.writeLong(value.validFromMillis());
+            out.writeInt(buf.readableBytes());
+            byte[] me = new byte[buf.readableBytes()];
+            buf.readBytes(me);
+            buf.release();
+            out.write(me);
+        }
+
+        @Override
+        public Data deserialize(DataInput in, int available) throws IOException {
+            final SignatureFactory signatureFactory = signatureFactory();
+            final long validFromMillis = in.readLong();
+            final byte[] me = new byte[in.readInt()];
+            in.readFully(me);
+            final ByteBuf buf = Unpooled.wrappedBuffer(me);
+            final Data data = Data.decodeHeader(buf, signatureFactory);
+            if (data == null || !data.decodeBuffer(buf) || !data.decodeDone(buf, null, signatureFactory)) {
+                throw new IOException("could not decode the stored data object");
+            }
+            data.validFromMillis(validFromMillis);
+            return data;
+        }
+
+        @Override
+        public int fixedSize() {
+            return -1;
+        }
+
+        private SignatureFactory signatureFactory() {
+            return signatureFactory == null ? new DSASignatureFactory() : signatureFactory;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package net.tomp2p.storage;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.SortedMap;
+
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.StorageLayer.PutStatus;
+import net.tomp2p.utils.Utils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStorageDisk {
+    final private static Number160 locationKey = new Number160(10);
+
+    final private static Number160 domainKey = new Number160(20);
+
+    final private static Number160 content1 = new Number160(50);
+
+    final private static Number160 content2 = new Number160(60);
+
+    final private static Number160 content3 = new Number160(70);
+
+    final private static Number160 content4 = new Number160(80);
+
+    final private Number640 key1 = new Number640(locationKey, domainKey, content1, Number160.ZERO);
+    final private Number640 key2 = new Number640(locationKey, domainKey, content2, Number160.ZERO);
+    final private Number640 key3 = new Number640(locationKey, domainKey, content3, Number160.ZERO);
+    final private Number640 key4 = new Number640(locationKey, domainKey, content4, Number160.ZERO);
+
+    private File dir;
+
+    @Before
+    public void befor() throws IOException {
+        dir = Utils.createTempDir();
+    }
+
+    @After
+    public void after() {
+        dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File pathname) {
+                if (pathname.isFile())
+                    pathname.delete();
+                return false;
+            }
+        });
+        dir.delete();
+    }
+
+    private void store(StorageLayer storage) throws IOException {
+        Enum<?> store = storage.put(key1, new Data("test1"), null, false, false);
+        Assert.assertEquals(PutStatus.OK, store);
+        store = storage.put(key2, new Data("test2"), null, false, false);
+        Assert.assertEquals(PutStatus.OK, store);
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        StorageDisk storageD = new StorageDisk(new File(dir, "db"));
+        StorageLayer storage = new StorageLayer(storageD);
+        store(storage);
+        Assert.assertEquals("test1", storage.get(key1).object());
+        Assert.assertEquals("test2", storage.get(key2).object());
+        Assert.assertEquals(null, storage.get(key3));
+        storageD.close();
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        StorageDisk storageD = new StorageDisk(new File(dir, "db"), 0);
+        StorageLayer storage = new StorageLayer(storageD);
+        store(storage);
+        storage.put(key3, new Data("test3"), null, false, false);
+        Assert.assertEquals(3, storageD.contains(key1, key4));
+        SortedMap<Number640, Data> result1 = storage.get(key1, key4, 2, true);
+        Assert.assertEquals(2, result1.size());
+        Assert.assertEquals(key1, result1.firstKey());
+        SortedMap<Number640, Data> result2 = storage.get(key1, key4, 2, false);
+        Assert.assertEquals(2, result2.size());
+        Assert.assertEquals(key3, result2.lastKey());
+        SortedMap<Number640, Data> result3 = storage.removeReturnData(key1, key2, null);
+        Assert.assertEquals(2, result3.size());
+        Assert.assertEquals("test2", result3.get(key2).object());
+        Assert.assertEquals(1, storage.get(key1, key4, -1, true).size());
+        storageD.close();
+    }
+
+    @Test
+    public void testTTL() throws Exception {
+        StorageDisk storageD = new StorageDisk(new File(dir, "db"));
+        StorageLayer storage = new StorageLayer(storageD);
+        Data data = new Data("string");
+        data.ttlSeconds(1);
+        storage.put(key1, data, null, false, false);
+        storage.put(key2, new Data("string"), null, false, false);
+        Thread.sleep(2000);
+        storage.checkTimeout();
+        Assert.assertEquals(null, storage.get(key1));
+        Assert.assertEquals("string", storage.get(key2).object());
+        // key2 never expires
+        Assert.assertEquals(0, storageD.subMapTimeout(Long.MAX_VALUE).size());
+        storageD.close();
+    }
+
+    @Test
+    public void testResponsibility() throws Exception {
+        StorageDisk storage = new StorageDisk(new File(dir, "db"));
+        storage.updateResponsibilities(content1, locationKey);
+        storage.updateResponsibilities(content2, locationKey);
+        Assert.assertEquals(locationKey, storage.findPeerIDForResponsibleContent(content1));
+        Assert.assertEquals(2, storage.findContentForResponsiblePeerID(locationKey).size());
+        storage.updateResponsibilities(content1, domainKey);
+        Assert.assertEquals(domainKey, storage.findPeerIDForResponsibleContent(content1));
+        Assert.assertEquals(1, storage.findContentForResponsiblePeerID(locationKey).size());
+        storage.removeResponsibility(content2);
+        Assert.assertEquals(0, storage.findContentForResponsiblePeerID(locationKey).size());
+        storage.close();
+    }
+
+    @Test
+    public void testPublicKeyDomain() throws Exception {
+        StorageDisk storageD = new StorageDisk(new File(dir, "db"));
+        StorageLayer storage = new StorageLayer(storageD);
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
+        KeyPair pair1 = gen.generateKeyPair();
+        KeyPair pair2 = gen.generateKeyPair();
+        Enum<?> result1 = storage.put(key3, new Data("test4"), pair1.getPublic(), false, true);
+        Assert.assertEquals(PutStatus.OK, result1);
+        // domain is protected by pair1
+        Enum<?> result2 = storage.put(key3, new Data("test5"), pair2.getPublic(), false, true);
+        Assert.assertEquals(PutStatus.FAILED_SECURITY, result2);
+        storageD.close();
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
+        gen.initialize(1024);
+        KeyPair pair1 = gen.generateKeyPair();
+        StorageDisk storageD = new StorageDisk(new File(dir, "db"));
+        StorageLayer storage = new StorageLayer(storageD);
+        Data data = new Data("signed").ttlSeconds(100).basedOn(content4);
+        data.sign(pair1, new DSASignatureFactory());
+        storage.put(key1, data, pair1.getPublic(), false, true);
+        storageD.close();
+
+        storageD = new StorageDisk(new File(dir, "db"));
+        Data stored = storageD.get(key1);
+        Assert.assertEquals("signed", stored.object());
+        Assert.assertEquals(content4, stored.basedOn());
+        Assert.assertEquals(data.expirationMillis(), stored.expirationMillis());
+        Assert.assertEquals(true, stored.verify(new DSASignatureFactory()));
+        Assert.assertEquals(1, storageD.subMapTimeout(Long.MAX_VALUE).size());
+        Assert.assertEquals(true, storageD.isDomainProtectedByOthers(key1.locationAndDomainKey(), null));
+        Assert.assertEquals(false,
+                storageD.isDomainProtectedByOthers(key1.locationAndDomainKey(), pair1.getPublic()));
+        storageD.close();
+    }
+}